@@ -1,14 +1,39 @@
-
+/**
+ * An Agent is a view on an occupied cell of a World. The group and satisfaction threshold of the agent are stored by the
+ * World itself; an Agent only remembers in which cell it currently lives. A view stays valid as long as the agent is moved
+ * through it.
+ */
 public class Agent {
 
+    private final World world;
     private final int group;
     private double satisfactionThreshold;
-    private Cell currentCell;
+    private int index;
 
+    /**
+     * Constructs a new Agent that is not yet placed in the World. The Agent is placed by moving it to a Cell
+     *
+     * @param group the group of the Agent
+     * @param satisfactionThreshold the satisfaction threshold of the Agent
+     * @param currentCell a Cell of the World the Agent belongs to
+     */
     public Agent(int group, double satisfactionThreshold, Cell currentCell) {
+        this.world = currentCell.getWorld();
         this.group = group;
         this.satisfactionThreshold = satisfactionThreshold;
-        this.currentCell = currentCell;
+        this.index = -1;
+    }
+
+    /**
+     * Constructs a view on the agent living in an occupied Cell
+     *
+     * @param world the World the agent lives in
+     * @param index index of the Cell containing the agent
+     */
+    public Agent(World world, int index) {
+        this.world = world;
+        this.group = world.getGroup(index);
+        this.index = index;
     }
 
     public int getGroup() {
@@ -16,29 +41,48 @@ public class Agent {
     }
 
     public Cell getCurrentCell() {
-        return this.currentCell;
+        return this.index < 0 ? null : this.world.getCell(this.index);
     }
 
     public void setSatisfactionThreshold(double satisfactionThreshold) {
-        this.satisfactionThreshold = satisfactionThreshold;
+        if (this.index < 0) {
+            this.satisfactionThreshold = satisfactionThreshold;
+        } else {
+            this.world.setThreshold(this.index, satisfactionThreshold);
+        }
     }
 
     public double getSatisfactionThreshold() {
-        return this.satisfactionThreshold;
+        return this.index < 0 ? this.satisfactionThreshold : this.world.getThreshold(this.index);
     }
 
     /**
-     * Method that determines which visible Cell a Creature moves to
+     * Method that determines which visible Cell a Creature moves to. The Agent moves to the nearest empty Cell in which it
+     * would be satisfied
      */
     public void move() {
-        // Check if Agent is presently unhappy and move the agent to a satisfactory location
-        if (this.currentCell.getPercentage(this.group, false) < this.satisfactionThreshold) {
-            for (Cell cell : this.currentCell.getNearestCells()) {
-                if (cell.getPercentage(this.group, false) >= this.satisfactionThreshold && cell.isEmpty()) {
-                    this.moveTo(cell);
-                }
-            }
+        this.move(new VacancySearch());
+    }
+
+    /**
+     * Moves the Agent, if it is presently unhappy, to the satisfactory location found by a search
+     *
+     * @param search the search used to find a satisfactory location
+     * @return true if the Agent has moved
+     */
+    public boolean move(VacancySearch search) {
+        if (this.world.isSatisfied(this.index)) {
+            return false;
         }
+
+        int destination = search.find(this.world, this.index, this.group, this.getSatisfactionThreshold());
+
+        if (destination < 0) {
+            return false;
+        }
+
+        this.moveTo(this.world.getCell(destination));
+        return true;
     }
 
     /**
@@ -48,11 +92,12 @@ public class Agent {
      * @param newCell Cell which the Creature is to be moved to
      */
     public void moveTo(Cell newCell) {
-        if (this.currentCell != null) {
-            this.currentCell.removeAgent();
+        if (this.index < 0) {
+            this.world.addAgent(newCell.getIndex(), this.group, this.satisfactionThreshold);
+        } else {
+            this.world.moveAgent(this.index, newCell.getIndex());
         }
 
-        this.currentCell = newCell;
-        this.currentCell.addAgent(this);
+        this.index = newCell.getIndex();
     }
 }
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * The agents of a World, stored as a structure of arrays: the cell, group and satisfaction threshold of every agent are kept in
+ * parallel primitive arrays indexed by the position of the agent in the store, and the position of the agent in every cell is
+ * kept in a ChunkedInts. Going over all agents is therefore a linear pass over a few contiguous arrays, which neither visits
+ * empty cells nor creates an object per agent. Like an IndexSet the store is dense: when an agent is removed, the last agent
+ * takes its position. Moving an agent to another cell only changes its cell, so it keeps its position.
+ *
+ * Agents in different cells can be moved concurrently by several threads, but adding and removing agents must not run
+ * concurrently with any other method.
+ */
+public class AgentStore {
+    private int[] cells;
+    private byte[] groups;
+    private float[] thresholds;
+    // Position of the agent in every cell, plus one; 0 for empty cells
+    private final ChunkedInts positions;
+    private int size;
+
+    /**
+     * @param capacity the number of cells the agents can occupy
+     * @param chunked true to store the positions of the agents in chunks, false to store them in a single array
+     */
+    public AgentStore(int capacity, boolean chunked) {
+        int length = Math.min(capacity, 16);
+
+        this.cells = new int[length];
+        this.groups = new byte[length];
+        this.thresholds = new float[length];
+        this.positions = new ChunkedInts(capacity, 0, chunked);
+    }
+
+    /**
+     * @return the number of agents
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param cell index of a cell
+     * @return the position of the agent in the cell, or -1 if the cell is empty
+     */
+    public int getPosition(int cell) {
+        return this.positions.get(cell) - 1;
+    }
+
+    /**
+     * @param position position of an agent, between 0 and size() - 1
+     * @return index of the cell containing the agent
+     */
+    public int getCell(int position) {
+        return this.cells[position];
+    }
+
+    /**
+     * @param position position of an agent, between 0 and size() - 1
+     * @return the group of the agent
+     */
+    public int getGroup(int position) {
+        return this.groups[position];
+    }
+
+    /**
+     * @param position position of an agent, between 0 and size() - 1
+     * @return the satisfaction threshold of the agent
+     */
+    public float getThreshold(int position) {
+        return this.thresholds[position];
+    }
+
+    /**
+     * @param position position of an agent, between 0 and size() - 1
+     * @param threshold the new satisfaction threshold of the agent
+     */
+    public void setThreshold(int position, float threshold) {
+        this.thresholds[position] = threshold;
+    }
+
+    /**
+     * Gives every agent the same satisfaction threshold
+     *
+     * @param threshold the new satisfaction threshold
+     */
+    public void fillThresholds(float threshold) {
+        Arrays.fill(this.thresholds, 0, this.size, threshold);
+    }
+
+    /**
+     * Adds an agent in an empty cell at the end of the store
+     *
+     * @param cell index of the cell
+     * @param group group of the agent
+     * @param threshold satisfaction threshold of the agent
+     */
+    public void add(int cell, int group, float threshold) {
+        if (this.size == this.cells.length) {
+            int length = (int) Math.min(this.positions.length(), 2L * this.size);
+
+            this.cells = Arrays.copyOf(this.cells, length);
+            this.groups = Arrays.copyOf(this.groups, length);
+            this.thresholds = Arrays.copyOf(this.thresholds, length);
+        }
+
+        this.cells[this.size] = cell;
+        this.groups[this.size] = (byte) group;
+        this.thresholds[this.size] = threshold;
+        this.positions.set(cell, ++this.size);
+    }
+
+    /**
+     * Removes the agent from a cell, if it contains one. The last agent takes the place of the removed one
+     *
+     * @param cell index of the cell
+     */
+    public void remove(int cell) {
+        int position = this.positions.get(cell) - 1;
+
+        if (position >= 0) {
+            int last = --this.size;
+            this.cells[position] = this.cells[last];
+            this.groups[position] = this.groups[last];
+            this.thresholds[position] = this.thresholds[last];
+            this.positions.set(this.cells[position], position + 1);
+            this.positions.set(cell, 0);
+        }
+    }
+
+    /**
+     * Moves the agent in one cell to another, empty, cell
+     *
+     * @param from index of the cell containing the agent
+     * @param to index of the empty cell
+     */
+    public void move(int from, int to) {
+        int position = this.positions.get(from);
+
+        this.cells[position - 1] = to;
+        this.positions.set(to, position);
+        this.positions.set(from, 0);
+    }
+
+    /**
+     * Removes all agents
+     */
+    public void clear() {
+        this.positions.fill(0);
+        this.size = 0;
+    }
+
+    /**
+     * Releases the memory of chunks of positions that have become uniform since the last compaction
+     */
+    public void compact() {
+        this.positions.compact();
+    }
+
+    /**
+     * @return the number of bytes taken by the arrays of the agents and by their positions, not counting shared chunks
+     */
+    public long getAllocatedBytes() {
+        return 9L * this.cells.length + this.positions.getAllocatedBytes();
+    }
+}
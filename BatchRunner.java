@@ -0,0 +1,270 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Runs a simulation without a user interface. The parameters are taken from the command line and/or a configuration file (see
+ * SimulationConfig), the simulation runs at full speed, and the segregation and unhappiness are written every interval steps to
+ * a CSV file or a compact binary file. With --mode=sweep the run consists of parallel sweeps instead of steps, and the steps,
+ * interval and reported throughput count sweeps. In that mode the metrics of worlds with two groups are evaluated on a
+ * Bitboard, so the World does not have to rebuild its bookkeeping after every sweep. At the end the throughput is reported.
+ *
+ * With --checkpoint=file the state of the simulation is saved to the file every checkpointInterval steps and at the end of the
+ * run. With --resume=file a run continues from a saved checkpoint instead of starting with a new world; the parameters of the
+ * simulation are then taken from the checkpoint, steps is the total number of steps including those performed before the
+ * checkpoint, and the output starts at the step the checkpoint was saved.
+ *
+ * With --log=file every change to the world is recorded in a MoveLog, with a keyframe every keyframeInterval steps, so the run
+ * can be replayed later with ReplayWindow.
+ *
+ * With --stopOnConvergence=true the run ends as soon as the simulation has converged (see Controller.isConverged), instead of
+ * performing the remaining steps on a world that no longer changes. The metrics are then sampled one last time, a checkpoint is
+ * saved if requested, and the step and time at which the simulation converged are reported.
+ *
+ * With --topology=torus the edges of the world wrap around, and with --topology=network --network=file the world is the graph
+ * read from an edge list, with density times the number of nodes agents. On these topologies agents search for a vacancy by
+ * the number of hops, and sweeps are not available.
+ *
+ * With --chunked=true the World stores its cells in chunks, and chunks that have become uniform are released every interval
+ * steps. This lets very large worlds that are mostly empty or strongly segregated fit in memory, but makes every step slower.
+ * With --offHeap=true the cells are kept outside the heap instead, and with --gridFile=file they are kept in a grid file that
+ * is mapped into memory, so other processes can watch the run and the final grid can be reopened with GridStore.open. A
+ * run resumed from a checkpoint keeps its cells on the heap.
+ *
+ * Usage: java BatchRunner [--config=file] [--width=50] [--height=50] [--density=0.76] [--groups=2] [--threshold=0.35]
+ * [--topology=grid|torus|network] [--network=file] [--radius=1] [--shape=MOORE|VON_NEUMANN|HEXAGONAL] [--seed=1234]
+ * [--steps=100000] [--interval=1000] [--scheduler=UNHAPPY_WORKLIST] [--metric=CHEBYSHEV] [--searchRadius=0]
+ * [--mode=step|sweep] [--threads=cores] [--tileSize=64] [--output=-] [--format=csv|binary] [--checkpoint=file]
+ * [--checkpointInterval=interval] [--resume=file] [--log=file] [--keyframeInterval=1000] [--stopOnConvergence=false]
+ * [--chunked=false] [--offHeap=false] [--gridFile=file]
+ */
+public class BatchRunner {
+    /**
+     * First bytes of a binary result file
+     */
+    public static final int MAGIC = 0x5343484c;
+    public static final int VERSION = 1;
+
+    private final SimulationConfig config;
+
+    public BatchRunner(SimulationConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) {
+        try {
+            new BatchRunner(new SimulationConfig(args)).run();
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("BatchRunner: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Performs the run described by the configuration
+     *
+     * @throws IOException if the results or a checkpoint cannot be written, or the checkpoint to resume cannot be read
+     */
+    public void run() throws IOException {
+        long steps = this.config.getSteps();
+        long interval = this.config.getInterval();
+        boolean sweep = this.config.isSweepMode();
+        String checkpoint = this.config.getString("checkpoint", "");
+        long checkpointInterval = this.config.getCheckpointInterval();
+        String resume = this.config.getString("resume", "");
+        String logFile = this.config.getString("log", "");
+        boolean stopOnConvergence = this.config.isStopOnConvergence();
+
+        long start = System.nanoTime();
+        Controller controller = resume.isEmpty() ? this.config.createController()
+                : Checkpoint.load(Paths.get(resume), this.config.isChunked());
+        World world = controller.getWorld();
+        if (sweep && !world.isBoundedGrid()) {
+            throw new IllegalArgumentException("Sweeps need a bounded grid");
+        }
+
+        long first = sweep ? (controller.getParallelSweep() == null ? 0 : controller.getParallelSweep().getSweepCount())
+                : controller.getStepCount();
+        long firstMove = world.getMoveCount();
+        long initialised = System.nanoTime();
+        long last = Math.max(first, steps);
+        long converged = -1;
+
+        Bitboard bitboard = sweep && Bitboard.supports(world) ? new Bitboard(world.getWidth(), world.getHeight()) : null;
+        MoveLog log = logFile.isEmpty() ? null
+                : new MoveLog(world, logFile, first, this.config.getInt("keyframeInterval", 1000));
+
+        try (ResultWriter writer = createWriter(this.config)) {
+            this.sample(writer, first, world, bitboard);
+
+            for (long step = first + 1; step <= steps; step++) {
+                if (sweep) {
+                    controller.sweep();
+                } else {
+                    controller.step();
+                }
+
+                if (log != null) {
+                    log.endStep(step);
+                }
+
+                boolean end = step == steps;
+                if (stopOnConvergence && controller.isConverged()) {
+                    converged = System.nanoTime();
+                    last = step;
+                    end = true;
+                }
+
+                if (step % interval == 0 || end) {
+                    this.sample(writer, step, world, bitboard);
+                }
+                if (!checkpoint.isEmpty() && (step % checkpointInterval == 0 || end)) {
+                    Checkpoint.save(controller, Paths.get(checkpoint));
+                }
+                if (converged >= 0) {
+                    break;
+                }
+            }
+        } finally {
+            if (log != null) {
+                log.close();
+            }
+            if (controller.getParallelSweep() != null) {
+                controller.getParallelSweep().close();
+            }
+            if (world.getStore() != null) {
+                world.getStore().force();
+                world.getStore().close();
+            }
+        }
+
+        long performed = last - first;
+        long moves = world.getMoveCount() - firstMove;
+        double seconds = (System.nanoTime() - initialised) / 1e9;
+        System.err.printf("initialisation: %.3f s%n", (initialised - start) / 1e9);
+        System.err.printf("steps: %d, moves: %d, time: %.3f s%n", performed, moves, seconds);
+        System.err.printf("throughput: %.0f steps/s, %.0f moves/s%n", performed / seconds, moves / seconds);
+        if (converged >= 0) {
+            System.err.printf("converged after %d steps, %.3f s%n", last, (converged - initialised) / 1e9);
+        }
+    }
+
+    /**
+     * Writes the current metrics of the World, evaluated on the Bitboard if there is one
+     */
+    private void sample(ResultWriter writer, long step, World world, Bitboard bitboard) throws IOException {
+        world.compact();
+
+        if (bitboard == null) {
+            writer.write(step, world.getSegregation(), world.getUnhappiness());
+        } else {
+            bitboard.load(world);
+            Bitboard.Evaluation evaluation = bitboard.evaluate(world.getUniformThreshold());
+            writer.write(step, evaluation.getSegregation(), evaluation.getUnhappiness());
+        }
+    }
+
+    /**
+     * Creates the destination of the sampled metrics in the format of a configuration (--format=csv|binary), writing to the
+     * file given by --output or to the standard output. The format is checked before the file is opened, so an invalid
+     * configuration does not truncate an existing file. Closing the writer does not close the standard output
+     */
+    static ResultWriter createWriter(SimulationConfig config) throws IllegalArgumentException, IOException {
+        String format = config.getString("format", "csv");
+        if (!format.equals("csv") && !format.equals("binary")) {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+
+        String output = config.getString("output", "-");
+        OutputStream out = output.equals("-") ? new UnclosedOutputStream(System.out) : new FileOutputStream(output);
+
+        try {
+            return format.equals("csv") ? new CsvWriter(out) : new BinaryWriter(out);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A stream that writes to another one but only flushes it when it is closed, for the standard output
+     */
+    private static class UnclosedOutputStream extends FilterOutputStream {
+        UnclosedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.flush();
+        }
+    }
+
+    /**
+     * Destination of the sampled metrics
+     */
+    interface ResultWriter extends Closeable {
+        void write(long step, double segregation, double unhappiness) throws IOException;
+    }
+
+    /**
+     * Writes one line per sample: step,segregation,unhappiness
+     */
+    private static class CsvWriter implements ResultWriter {
+        private final Writer writer;
+
+        CsvWriter(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII));
+            this.writer.write("step,segregation,unhappiness\n");
+        }
+
+        @Override
+        public void write(long step, double segregation, double unhappiness) throws IOException {
+            this.writer.write(step + "," + segregation + "," + unhappiness + "\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Writes a header (magic, version) followed by one record per sample: the step as a long and both metrics as floats
+     */
+    private static class BinaryWriter implements ResultWriter {
+        private final DataOutputStream out;
+
+        BinaryWriter(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+
+        @Override
+        public void write(long step, double segregation, double unhappiness) throws IOException {
+            this.out.writeLong(step);
+            this.out.writeFloat((float) segregation);
+            this.out.writeFloat((float) unhappiness);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the time per operation of the hot paths of the simulation, for every combination of world size, density and number
+ * of groups, so that the scaling of each operation can be seen. Every measurement starts from a world populated with the same
+ * seed. An operation is first run for a warm-up period, after which it is repeated until the measurement period has passed.
+ * Operations that move agents would eventually run on a converged world, in which they do nothing; their world is then
+ * populated again, which is not timed, so that every measured operation works on a world that is still changing.
+ * The results are printed as CSV: benchmark,size,density,groups,operations,ns/op
+ *
+ * Usage: java -Djava.awt.headless=true Benchmarks [--sizes=50,128,512,1024,2048,4096] [--densities=0.5,0.95] [--groups=2,4]
+ * [--seed=1234] [--threshold=0.35] [--warmup=200] [--measure=1000] [--benchmarks=name,...] [--maxSortSize=512]
+ *
+ * Warm-up and measurement periods are in milliseconds. Sorting the whole world in Cell.getNearestCells takes seconds on large
+ * worlds, so that benchmark is skipped for sizes above maxSortSize.
+ */
+public class Benchmarks {
+    // The result of every operation is folded into this field so that the JIT cannot remove the operation
+    private static volatile long sink;
+
+    private final SimulationConfig config;
+
+    public Benchmarks(SimulationConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) {
+        try {
+            new Benchmarks(new SimulationConfig(args)).run();
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Benchmarks: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs all selected benchmarks for all combinations of parameters
+     */
+    public void run() {
+        String selected = "," + this.config.getString("benchmarks", "") + ",";
+        long seed = this.config.getSeed();
+
+        System.out.println("benchmark,size,density,groups,operations,ns/op");
+
+        for (String size : this.config.getString("sizes", "50,128,512,1024,2048,4096").split(",")) {
+            for (String density : this.config.getString("densities", "0.5,0.95").split(",")) {
+                for (String groups : this.config.getString("groups", "2,4").split(",")) {
+                    int n = Integer.parseInt(size.trim());
+                    Setup setup = new Setup(n, Double.parseDouble(density.trim()), Integer.parseInt(groups.trim()), seed,
+                            this.config.getThreshold());
+
+                    for (Operation operation : this.createOperations(setup)) {
+                        if (selected.equals(",,") || selected.contains("," + operation.getName() + ",")) {
+                            this.measure(operation, setup);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the operations to benchmark, each of which works on a freshly populated world
+     */
+    private List<Operation> createOperations(Setup setup) {
+        List<Operation> operations = new ArrayList<>();
+
+        operations.add(new Operation("Controller.step/RANDOM_ORDER") {
+            private Controller controller;
+
+            @Override
+            void prepare() {
+                this.controller = setup.createController();
+                this.controller.setScheduler(Controller.Scheduler.RANDOM_ORDER);
+            }
+
+            @Override
+            long run() {
+                this.controller.step();
+                return this.controller.getWorld().getMoveCount();
+            }
+
+            @Override
+            boolean isExhausted() {
+                return this.controller.isConverged();
+            }
+        });
+
+        operations.add(new Operation("Controller.step/UNHAPPY_WORKLIST") {
+            private Controller controller;
+
+            @Override
+            void prepare() {
+                this.controller = setup.createController();
+                this.controller.setScheduler(Controller.Scheduler.UNHAPPY_WORKLIST);
+            }
+
+            @Override
+            long run() {
+                this.controller.step();
+                return this.controller.getWorld().getMoveCount();
+            }
+
+            @Override
+            boolean isExhausted() {
+                return this.controller.isConverged();
+            }
+        });
+
+        operations.add(new Operation("Agent.move") {
+            private World world;
+            private Random random;
+            private VacancySearch search;
+            // Attempts since an agent last moved
+            private int failures;
+
+            @Override
+            void prepare() {
+                this.world = setup.createController().getWorld();
+                this.random = new Random(setup.seed);
+                this.search = new VacancySearch(VacancySearch.Metric.CHEBYSHEV, 0, this.random);
+                this.failures = 0;
+            }
+
+            @Override
+            long run() {
+                int unhappy = this.world.getUnhappyCount();
+                boolean moved = new Agent(this.world, this.world.getUnhappyCell(this.random.nextInt(unhappy))).move(this.search);
+
+                this.failures = moved ? 0 : this.failures + 1;
+                return moved ? 1 : 0;
+            }
+
+            @Override
+            boolean isExhausted() {
+                // Either no agent is unhappy, or so many attempts failed in a row that the unhappy agents are most likely stuck
+                int unhappy = this.world.getUnhappyCount();
+                return unhappy == 0 || this.failures >= unhappy;
+            }
+        });
+
+        operations.add(new Operation("Cell.getPercentage") {
+            private World world;
+            private Random random;
+
+            @Override
+            void prepare() {
+                this.world = setup.createController().getWorld();
+                this.random = new Random(setup.seed);
+            }
+
+            @Override
+            long run() {
+                Cell cell = this.world.getCell(this.random.nextInt(this.world.getSize()));
+                return Double.doubleToLongBits(cell.getPercentage(this.random.nextInt(setup.groups), false));
+            }
+        });
+
+        if (setup.size <= this.config.getInt("maxSortSize", 512)) {
+            operations.add(new Operation("Cell.getNearestCells") {
+                private World world;
+                private Random random;
+
+                @Override
+                void prepare() {
+                    this.world = setup.createController().getWorld();
+                    this.random = new Random(setup.seed);
+                }
+
+                @Override
+                long run() {
+                    return this.world.getCell(this.random.nextInt(this.world.getSize())).getNearestCells().get(0).getIndex();
+                }
+            });
+        }
+
+        operations.add(new Operation("World.getSegregation") {
+            private World world;
+
+            @Override
+            void prepare() {
+                this.world = setup.createController().getWorld();
+            }
+
+            @Override
+            long run() {
+                return Double.doubleToLongBits(this.world.getSegregation());
+            }
+        });
+
+        operations.add(new Operation("World.getUnhappiness") {
+            private World world;
+
+            @Override
+            void prepare() {
+                this.world = setup.createController().getWorld();
+            }
+
+            @Override
+            long run() {
+                return Double.doubleToLongBits(this.world.getUnhappiness());
+            }
+        });
+
+        operations.add(new Operation("WorldPanel.paint") {
+            private WorldPanel panel;
+            private BufferedImage image;
+
+            @Override
+            void prepare() {
+                this.panel = new WorldPanel(setup.createController().getWorld());
+                this.panel.setSize(650, 650);
+                this.image = new BufferedImage(650, 650, BufferedImage.TYPE_INT_RGB);
+            }
+
+            @Override
+            long run() {
+                Graphics2D g = this.image.createGraphics();
+                this.panel.paintComponent(g);
+                g.dispose();
+
+                return this.image.getRGB(0, 0);
+            }
+        });
+
+        return operations;
+    }
+
+    /**
+     * Warms up an operation, measures it and prints the result
+     */
+    private void measure(Operation operation, Setup setup) {
+        long warmup = this.config.getLong("warmup", 200) * 1000000L;
+        long period = this.config.getLong("measure", 1000) * 1000000L;
+
+        operation.prepare();
+        this.repeat(operation, warmup);
+
+        operation.prepare();
+        Measurement measurement = this.repeat(operation, period);
+
+        System.out.printf("%s,%d,%s,%d,%d,%.1f%n", operation.getName(), setup.size, setup.density, setup.groups,
+                measurement.operations, (double) measurement.elapsed / measurement.operations);
+    }
+
+    /**
+     * Runs an operation in batches of growing size until a period has passed, not counting the time taken to prepare the
+     * operation again when it is exhausted
+     *
+     * @return the number of operations performed and the time they took
+     */
+    private Measurement repeat(Operation operation, long period) {
+        long start = System.nanoTime();
+        long excluded = 0;
+        long operations = 0;
+        long result = 0;
+
+        for (int batch = 1; System.nanoTime() - start - excluded < period; batch = Math.min(batch * 2, 1 << 16)) {
+            for (int i = 0; i < batch; i++) {
+                if (operation.isExhausted()) {
+                    long pause = System.nanoTime();
+                    operation.prepare();
+                    excluded += System.nanoTime() - pause;
+                }
+
+                result += operation.run();
+            }
+
+            operations += batch;
+        }
+
+        sink += result;
+        return new Measurement(operations, System.nanoTime() - start - excluded);
+    }
+
+    /**
+     * The number of operations performed in a measurement and the time they took in nanoseconds
+     */
+    private static class Measurement {
+        final long operations, elapsed;
+
+        Measurement(long operations, long elapsed) {
+            this.operations = operations;
+            this.elapsed = elapsed;
+        }
+    }
+
+    /**
+     * The parameters of one combination
+     */
+    private static class Setup {
+        final int size, groups;
+        final double density, threshold;
+        final long seed;
+
+        Setup(int size, double density, int groups, long seed, double threshold) {
+            this.size = size;
+            this.density = density;
+            this.groups = groups;
+            this.seed = seed;
+            this.threshold = threshold;
+        }
+
+        Controller createController() {
+            Controller controller = new Controller(new World(this.size, this.size), this.seed, this.threshold, this.groups,
+                    (int) Math.round(this.density * this.size * this.size));
+            controller.createRandomNeighbourhood();
+
+            return controller;
+        }
+    }
+
+    /**
+     * An operation to benchmark. prepare is called before the warm-up and before the measurement, and again whenever the
+     * operation is exhausted; it is not timed
+     */
+    private abstract static class Operation {
+        private final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        abstract void prepare();
+
+        abstract long run();
+
+        /**
+         * @return true if further runs would no longer change the world, so the operation has to be prepared again
+         */
+        boolean isExhausted() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * A Bitboard stores a world with at most two groups as two bit planes: one telling which cells are occupied, and one telling
+ * which occupied cells belong to group 1. Every row is stored as its own sequence of 64-bit words. The neighbour counts of 64
+ * cells are computed at once with shifts and bit-sliced additions, and the resulting fractions are tallied with Long.bitCount,
+ * so evaluating the happiness and segregation of the whole world costs a few word operations per 64 cells.
+ *
+ * The Bitboard uses a bounded grid with the radius 1 Moore neighbourhood and a single satisfaction threshold for all agents.
+ */
+public class Bitboard {
+    private final int width, height, words;
+    private final long[] occupied, group;
+    // Bits of the last word of a row that correspond to cells inside the world
+    private final long lastWordMask;
+
+    /**
+     * Constructs an empty Bitboard
+     *
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public Bitboard(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+        this.occupied = new long[height * this.words];
+        this.group = new long[height * this.words];
+        this.lastWordMask = width % 64 == 0 ? -1L : (1L << (width % 64)) - 1;
+    }
+
+    /**
+     * @param world a World
+     * @return true if the World can be represented by a Bitboard: it has at most two groups, its agents share one
+     * satisfaction threshold and it is a bounded grid with the radius 1 Moore neighbourhood
+     */
+    public static boolean supports(World world) {
+        if (world.getNumberOfGroups() > 2 || Double.isNaN(world.getUniformThreshold()) || !world.isBoundedGrid()) {
+            return false;
+        }
+
+        Neighbourhood neighbourhood = (Neighbourhood) world.getTopology();
+        return neighbourhood.getRadius() == 1 && neighbourhood.getShape() == Neighbourhood.Shape.MOORE;
+    }
+
+    /**
+     * Copies the state of a World into this Bitboard
+     *
+     * @param world a World of the same size as the Bitboard, with at most two groups
+     * @throws IllegalArgumentException if the World does not fit the Bitboard
+     */
+    public void load(World world) throws IllegalArgumentException {
+        if (world.getWidth() != this.width || world.getHeight() != this.height || world.getNumberOfGroups() > 2) {
+            throw new IllegalArgumentException("World does not fit the Bitboard");
+        }
+
+        for (int y = 0; y < this.height; y++) {
+            for (int w = 0; w < this.words; w++) {
+                long occupiedWord = 0;
+                long groupWord = 0;
+                int start = y * this.width + (w << 6);
+                int end = Math.min(64, this.width - (w << 6));
+
+                for (int k = 0; k < end; k++) {
+                    int g = world.getGroup(start + k);
+
+                    if (g != World.EMPTY) {
+                        occupiedWord |= 1L << k;
+                        groupWord |= (long) g << k;
+                    }
+                }
+
+                this.occupied[y * this.words + w] = occupiedWord;
+                this.group[y * this.words + w] = groupWord;
+            }
+        }
+    }
+
+    /**
+     * Changes the contents of a single cell
+     *
+     * @param x x-coordinate of the cell
+     * @param y y-coordinate of the cell
+     * @param g group of the agent in the cell (0 or 1), or World.EMPTY
+     */
+    public void set(int x, int y, int g) {
+        int word = y * this.words + (x >>> 6);
+        long bit = 1L << (x & 63);
+
+        if (g == World.EMPTY) {
+            this.occupied[word] &= ~bit;
+            this.group[word] &= ~bit;
+        } else {
+            this.occupied[word] |= bit;
+            this.group[word] = g == 1 ? this.group[word] | bit : this.group[word] & ~bit;
+        }
+    }
+
+    /**
+     * Evaluates the happiness and the same-group fraction of every agent
+     *
+     * @param threshold the satisfaction threshold of all agents
+     * @return the totals over all agents
+     */
+    public Evaluation evaluate(double threshold) {
+        // histogram[n][s] counts the agents with n occupied neighbours, of which s belong to the agent's own group
+        long[][] histogram = new long[9][9];
+        long[] n = new long[4];
+        long[] s = new long[4];
+
+        for (int y = 0; y < this.height; y++) {
+            for (int w = 0; w < this.words; w++) {
+                long self = this.occupied[y * this.words + w];
+
+                if (self == 0) {
+                    continue;
+                }
+
+                long selfGroup = this.group[y * this.words + w];
+                n[0] = n[1] = n[2] = n[3] = 0;
+                s[0] = s[1] = s[2] = s[3] = 0;
+
+                for (int dy = -1; dy <= 1; dy++) {
+                    int row = y + dy;
+
+                    if (row < 0 || row >= this.height) {
+                        continue;
+                    }
+
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if (dx == 0 && dy == 0) {
+                            continue;
+                        }
+
+                        long occupiedNeighbours = this.shifted(this.occupied, row, w, dx);
+                        long groupNeighbours = this.shifted(this.group, row, w, dx);
+
+                        add(n, occupiedNeighbours);
+                        add(s, occupiedNeighbours & ~(groupNeighbours ^ selfGroup));
+                    }
+                }
+
+                for (int i = 0; i <= 8; i++) {
+                    long withI = self & equal(n, i);
+
+                    for (int j = 0; withI != 0 && j <= i; j++) {
+                        long cells = withI & equal(s, j);
+                        histogram[i][j] += Long.bitCount(cells);
+                        withI &= ~cells;
+                    }
+                }
+            }
+        }
+
+        return new Evaluation(histogram, threshold);
+    }
+
+    /**
+     * Returns word w of a row, shifted such that bit k holds the cell at horizontal offset dx from cell k
+     */
+    private long shifted(long[] plane, int row, int w, int dx) {
+        int base = row * this.words;
+        long word = plane[base + w];
+
+        if (dx < 0) {
+            long previous = w > 0 ? plane[base + w - 1] : 0;
+            word = word << 1 | previous >>> 63;
+        } else if (dx > 0) {
+            long next = w < this.words - 1 ? plane[base + w + 1] : 0;
+            word = word >>> 1 | next << 63;
+        }
+
+        return w == this.words - 1 ? word & this.lastWordMask : word;
+    }
+
+    /**
+     * Adds one bit plane to a bit-sliced counter, where counter[k] holds bit k of the 64 counts
+     */
+    private static void add(long[] counter, long bits) {
+        long carry = bits;
+
+        for (int k = 0; k < counter.length && carry != 0; k++) {
+            long next = counter[k] & carry;
+            counter[k] ^= carry;
+            carry = next;
+        }
+    }
+
+    /**
+     * @return a mask of the cells whose bit-sliced count equals value
+     */
+    private static long equal(long[] counter, int value) {
+        long mask = -1L;
+
+        for (int k = 0; k < counter.length; k++) {
+            mask &= (value >>> k & 1) != 0 ? counter[k] : ~counter[k];
+        }
+
+        return mask;
+    }
+
+    /**
+     * The totals of an evaluation of all agents in a Bitboard
+     */
+    public static class Evaluation {
+        private final long agents, unhappy;
+        private final double fractionSum;
+
+        Evaluation(long[][] histogram, double threshold) {
+            long agents = 0;
+            long unhappy = 0;
+            double fractionSum = 0;
+
+            for (int n = 0; n <= 8; n++) {
+                for (int s = 0; s <= n; s++) {
+                    double fraction = n == 0 ? 0 : (double) s / n;
+                    agents += histogram[n][s];
+                    fractionSum += histogram[n][s] * fraction;
+
+                    if (!World.isSatisfied(fraction, threshold)) {
+                        unhappy += histogram[n][s];
+                    }
+                }
+            }
+
+            this.agents = agents;
+            this.unhappy = unhappy;
+            this.fractionSum = fractionSum;
+        }
+
+        public long getAgents() {
+            return this.agents;
+        }
+
+        public long getUnhappy() {
+            return this.unhappy;
+        }
+
+        /**
+         * @return the average same-group fraction of all agents, as World.getSegregation
+         */
+        public double getSegregation() {
+            return this.fractionSum / this.agents;
+        }
+
+        /**
+         * @return the fraction of unhappy agents, as World.getUnhappiness
+         */
+        public double getUnhappiness() {
+            return (double) this.unhappy / this.agents;
+        }
+    }
+}
@@ -5,27 +5,28 @@ import java.util.List;
  * A Cell is a part of the world that contains plants and Creatures; Carnivores and Herbivores. The class also keeps track of its location within
  * world. It is possible to add and remove Creatures from the Cell and to change the number of plants. The cell class has a defined natural order:
  * A Cell with more plants is preferred. If Cells contain the same number of plants, the Cell with fewer Creatures is preferred.
+ * A Cell does not hold any state itself: it is a view on the arrays of its World, so two Cells with the same index are equal.
  *
  * @author Max Hedeman Joosten
  */
 
 public class Cell implements Comparable<Cell> {
     private final World world;
-    private final int x, y;
-    private Agent agent;
+    private final int x, y, index;
 
     /**
-     * Constructs a new Cell inside a specified world with specified x and y coordinates
+     * Constructs a view on the Cell of a world with specified x and y coordinates
      *
      * @param w the World the Cell belongs to
      * @param x the x coordinate of the Cell
      * @param y the y coordinate of the Cell
+     * @param index the index of the Cell within the World
      */
-    public Cell(World w, int x, int y) {
+    public Cell(World w, int x, int y, int index) {
         this.world = w;
         this.x = x;
         this.y = y;
-        this.agent = null;
+        this.index = index;
     }
 
     /**
@@ -42,6 +43,13 @@ public class Cell implements Comparable<Cell> {
         return this.y;
     }
 
+    /**
+     * @return the index of the cell within its world
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
     /**
      * @return the world that the cell belongs to
      */
@@ -53,29 +61,32 @@ public class Cell implements Comparable<Cell> {
      * Adds a specified Creature to the Cell's list of Creatures
      */
     public void addAgent(Agent a) {
-        this.agent = a;
+        this.world.addAgent(this.index, a.getGroup(), a.getSatisfactionThreshold());
     }
 
     /**
      * Removes a specified Creature from the Cell's list of Creatures
      */
     public void removeAgent() {
-        this.agent = null;
+        this.world.removeAgent(this.index);
     }
 
     /**
-     * @return an immutable list containing all Creatures inside the Cell
+     * @return the Agent inside the Cell, or null if the Cell is empty
      */
     public Agent getAgent() {
+        if (this.isEmpty()) {
+            return null;
+        }
 
-        return this.agent;
+        return new Agent(this.world, this.index);
     }
 
     /**
      * @return true if the cell is empty, false otherwise
      */
     public boolean isEmpty() {
-        return this.agent == null;
+        return this.world.isEmpty(this.index);
     }
 
     /**
@@ -84,22 +95,18 @@ public class Cell implements Comparable<Cell> {
      * @return
      */
     public List<Cell> getNeighbouringCells(boolean includeMiddle) {
-        ArrayList<Cell> neighbouringCells = new ArrayList<>();
-
-        if (!includeMiddle) {
-            for (Cell cell : this.getWorld().getCellList()) {
-                if (Math.max(Math.abs(this.x - cell.getX()), Math.abs(this.y - cell.getY())) <= 1 && cell != this) {
-                    neighbouringCells.add(cell);
-                }
-            }
-
-            return neighbouringCells;
+        Topology topology = this.world.getTopology();
+        int[] offsets = topology.getOffsets(this.index);
+        int start = topology.getStart(this.index);
+        int end = topology.getEnd(this.index);
+        ArrayList<Cell> neighbouringCells = new ArrayList<>(end - start + 1);
+
+        if (includeMiddle) {
+            neighbouringCells.add(this);
         }
 
-        for (Cell cell : this.getWorld().getCellList()) {
-            if (Math.max(Math.abs(this.x - cell.getX()), Math.abs(this.y - cell.getY())) <= 1) {
-                neighbouringCells.add(cell);
-            }
+        for (int k = start; k < end; k++) {
+            neighbouringCells.add(this.world.getCell(this.index + offsets[k]));
         }
 
         return neighbouringCells;
@@ -111,37 +118,21 @@ public class Cell implements Comparable<Cell> {
      * @return
      */
     public double getPercentage(int group, boolean includeMiddle) {
-        double n = 0;
-        double g = 0;
-
-        for (Cell cell : this.getNeighbouringCells(includeMiddle)) {
-            if (!cell.isEmpty()) {
-                n++;
-                if (cell.getAgent().getGroup() == group) {
-                    g++;
-                }
-            }
-        }
-
-        if (n == 0) {
-            return 0;
-        }
-
-        return g / n;
+        return this.world.getPercentage(this.index, group, includeMiddle);
     }
 
     /**
      *
      * @param cell
-     * @return
+     * @return the Manhattan distance to the cell
      */
     public int getDistanceTo(Cell cell) {
-        return Math.abs((this.x - cell.getX()) + (this.y - cell.getY()));
+        return Math.abs(this.x - cell.getX()) + Math.abs(this.y - cell.getY());
     }
 
     /**
      *
-     * @return
+     * @return all Cells of the world, ordered by increasing distance to this Cell
      */
     public List<Cell> getNearestCells() {
         List<Cell> cellList = this.getWorld().getCellList();
@@ -150,6 +141,21 @@ public class Cell implements Comparable<Cell> {
         return cellList;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Cell)) {
+            return false;
+        }
+
+        Cell cell = (Cell) o;
+        return this.world == cell.world && this.index == cell.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.index;
+    }
+
     /**
      * Compares two cell objects with one another
      *
@@ -5,8 +5,12 @@ import org.jfree.data.time.TimeSeries;
 import org.jfree.data.time.TimeSeriesCollection;
 
 public class Chart {
+    // Time between two samples in milliseconds, and number of samples added to the chart at once
+    private static final long SAMPLE_INTERVAL = 40;
+    private static final int BATCH_SIZE = 5;
+    private static final int BUFFER_CAPACITY = 1024;
 
-    MySwingWorker mySwingWorker;
+    MetricsSampler sampler;
     JFreeChart chart;
     private World world;
     private final boolean type;
@@ -28,11 +32,11 @@ public class Chart {
         );
 
         this.type = type;
-        this.mySwingWorker = new MySwingWorker(this, this.type);
+        this.sampler = new MetricsSampler(this, this.type, SAMPLE_INTERVAL, BATCH_SIZE, BUFFER_CAPACITY);
     }
 
     public void go() {
-        this.mySwingWorker.execute();
+        this.sampler.start();
     }
 
     public JFreeChart getChart() {
@@ -40,8 +44,7 @@ public class Chart {
     }
 
     public void pause() {
-        this.mySwingWorker.cancel(true);
-        this.mySwingWorker = new MySwingWorker(this, this.type);
+        this.sampler.stop();
     }
 
     public World getWorld() {
@@ -0,0 +1,399 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the complete state of a simulation to a file and restores it, such that a restored simulation continues exactly as the
+ * saved one would have. The file is written and read through memory-mapped windows of at most 1 GB, so the grid of a large world
+ * is copied straight between the file and the arrays of the World.
+ *
+ * A checkpoint file consists of
+ * <ul>
+ * <li>a header: magic, version, width, height, number of groups, bits per cell, number of agents, move count, uniform
+ * threshold, whether thresholds differ per agent, whether the set of unhappy agents is tracked and its size;</li>
+ * <li>the state of the Controller: seed, state of the random number generator, satisfaction threshold, number of groups and
+ * agents, step delta, step count, scheduler, vacancy search metric and radius, and the tile size, threads and sweep count of
+ * the parallel sweep (tile size 0 if none is configured);</li>
+ * <li>the radius and shape of the neighbourhood of the World (since version 2; version 1 files use the radius 1 Moore
+ * neighbourhood);</li>
+ * <li>the kind of Topology of the World, 0 for a bounded grid, 1 for a torus and 2 for a network, and the number of entries
+ * of the adjacency of a network (since version 3; earlier files use a bounded grid);</li>
+ * <li>for a network, its adjacency in compressed sparse row form: the position of the first neighbour of every node followed by
+ * the number of entries, and for every entry the index of the neighbour minus the index of the node (see Network);</li>
+ * <li>the grid, with for every cell the group plus one (0 for an empty cell) packed in 1, 2, 4 or 8 bits depending on the
+ * number of groups;</li>
+ * <li>if thresholds differ per agent, the threshold of every agent as a float, in the order of the cells;</li>
+ * <li>if the set of unhappy agents is tracked, the cells of the unhappy agents in the order of the set.</li>
+ * </ul>
+ * All numbers are big-endian.
+ */
+public class Checkpoint {
+    /**
+     * First bytes of a checkpoint file
+     */
+    public static final int MAGIC = 0x5343484b;
+    public static final int VERSION = 3;
+
+    // Size of the header, the state of the Controller and the topology together, in versions 1 and 2 and in the current version
+    private static final int HEADER_SIZE_V1 = 112;
+    private static final int HEADER_SIZE_V2 = 117;
+    private static final int HEADER_SIZE = 122;
+
+    // Kinds of topology
+    private static final int GRID = 0, TORUS = 1, NETWORK = 2;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Saves a simulation. The checkpoint is first written to a temporary file next to the target, which then replaces the
+     * target, so a crash while saving leaves an earlier checkpoint intact
+     *
+     * @param controller the Controller of the simulation
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Controller controller, Path path) throws IOException {
+        World world = controller.getWorld();
+        int bits = bitsPerCell(world.getNumberOfGroups());
+        boolean perAgent = world.hasThresholdPerAgent();
+        boolean tracking = world.isTracking();
+        int unhappy = tracking ? world.getUnhappyCount() : 0;
+        ParallelSweep sweep = controller.getParallelSweep();
+        Topology topology = world.getTopology();
+        Neighbourhood neighbourhood = topology instanceof Neighbourhood ? (Neighbourhood) topology : null;
+        int adjacency = neighbourhood == null ? topology.getEnd(world.getSize() - 1) : 0;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putInt(world.getWidth()).putInt(world.getHeight()).putInt(world.getNumberOfGroups()).putInt(bits);
+        header.putInt(world.getAgentCount()).putLong(world.getMoveCount());
+        header.putFloat((float) world.getUniformThreshold()).put((byte) (perAgent ? 1 : 0)).put((byte) (tracking ? 1 : 0));
+        header.putInt(unhappy);
+        header.putLong(controller.getSeed()).putLong(controller.getRandom().getState());
+        header.putDouble(controller.getSatisfactionThreshold());
+        header.putInt(controller.getNumberOfGroups()).putInt(controller.getNumberOfAgents());
+        header.putInt(controller.getStepDelta()).putLong(controller.getStepCount());
+        header.put((byte) controller.getScheduler().ordinal());
+        header.put((byte) controller.getVacancySearch().getMetric().ordinal());
+        header.putInt(controller.getVacancySearch().getMaxRadius());
+        header.putInt(sweep == null ? 0 : sweep.getTileSize()).putInt(sweep == null ? 0 : sweep.getThreads());
+        header.putLong(sweep == null ? 0 : sweep.getSweepCount());
+        if (neighbourhood != null) {
+            header.putInt(neighbourhood.getRadius()).put((byte) neighbourhood.getShape().ordinal());
+            header.put((byte) (neighbourhood.isTorus() ? TORUS : GRID));
+        } else {
+            header.putInt(0).put((byte) 0).put((byte) NETWORK);
+        }
+        header.putInt(adjacency);
+        header.flip();
+
+        long size = HEADER_SIZE + (neighbourhood == null ? 4L * (world.getSize() + 1) + 4L * adjacency : 0)
+                + gridBytes(world.getSize(), bits) + (perAgent ? 4L * world.getAgentCount() : 0) + 4L * unhappy;
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (MappedFile file = new MappedFile(temporary, size, true)) {
+            file.ensure(header.remaining()).put(header);
+
+            if (neighbourhood == null) {
+                for (int i = 0; i < world.getSize(); i++) {
+                    file.ensure(4).putInt(topology.getStart(i));
+                }
+                file.ensure(4).putInt(adjacency);
+
+                int[] offsets = topology.getOffsets(0);
+                for (int k = 0; k < adjacency; k++) {
+                    file.ensure(4).putInt(offsets[k]);
+                }
+            }
+
+            writeGrid(file, world, bits);
+
+            if (perAgent) {
+                for (int i = 0; i < world.getSize(); i++) {
+                    if (!world.isEmpty(i)) {
+                        file.ensure(4).putFloat(world.getThreshold(i));
+                    }
+                }
+            }
+
+            for (int i = 0; i < unhappy; i++) {
+                file.ensure(4).putInt(world.getUnhappyCell(i));
+            }
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores a simulation saved with save
+     *
+     * @param path the file to read
+     * @return the Controller of the restored simulation, together with its World
+     * @throws IOException if the file cannot be read or is not a valid checkpoint
+     */
+    public static Controller load(Path path) throws IOException {
+        return load(path, false);
+    }
+
+    /**
+     * Restores a simulation saved with save into a World that optionally stores its cells in chunks
+     *
+     * @param path the file to read
+     * @param chunked true to store the cells of the World in chunks, see World
+     * @return the Controller of the restored simulation, together with its World
+     * @throws IOException if the file cannot be read or is not a valid checkpoint
+     */
+    public static Controller load(Path path, boolean chunked) throws IOException {
+        try (MappedFile file = new MappedFile(path, Files.size(path), false)) {
+            ByteBuffer header = file.ensure(8);
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file");
+            }
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version);
+            }
+
+            header = file.ensure((version == 1 ? HEADER_SIZE_V1 : version == 2 ? HEADER_SIZE_V2 : HEADER_SIZE) - 8);
+
+            int width = header.getInt();
+            int height = header.getInt();
+            int numberOfGroups = header.getInt();
+            int bits = header.getInt();
+            int agentCount = header.getInt();
+            long moveCount = header.getLong();
+            float uniformThreshold = header.getFloat();
+            boolean perAgent = header.get() != 0;
+            boolean tracking = header.get() != 0;
+            int unhappy = header.getInt();
+
+            long seed = header.getLong();
+            long state = header.getLong();
+            double satisfactionThreshold = header.getDouble();
+            int controllerGroups = header.getInt();
+            int controllerAgents = header.getInt();
+            int stepDelta = header.getInt();
+            long stepCount = header.getLong();
+            int scheduler = header.get();
+            int metric = header.get();
+            int maxRadius = header.getInt();
+            int tileSize = header.getInt();
+            int threads = header.getInt();
+            long sweepCount = header.getLong();
+            int radius = version == 1 ? 1 : header.getInt();
+            int shape = version == 1 ? Neighbourhood.Shape.MOORE.ordinal() : header.get();
+            int kind = version < 3 ? GRID : header.get();
+            int adjacency = version < 3 ? 0 : header.getInt();
+
+            if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE || numberOfGroups < 0
+                    || numberOfGroups > Byte.MAX_VALUE + 1 || bits != bitsPerCell(numberOfGroups) || agentCount < 0 || unhappy < 0
+                    || scheduler < 0 || scheduler >= Controller.Scheduler.values().length
+                    || metric < 0 || metric >= VacancySearch.Metric.values().length || kind < GRID || kind > NETWORK
+                    || (kind != NETWORK && (radius < 1 || shape < 0 || shape >= Neighbourhood.Shape.values().length))
+                    || (kind == NETWORK ? height != 1 || adjacency < 0 : adjacency != 0)) {
+                throw new IOException("Invalid checkpoint header");
+            }
+
+            long expected = file.position() + (kind == NETWORK ? 4L * (width + 1) + 4L * adjacency : 0)
+                    + gridBytes(width * height, bits) + (perAgent ? 4L * agentCount : 0) + 4L * unhappy;
+            if (expected != file.size()) {
+                throw new IOException("Checkpoint has an unexpected size");
+            }
+
+            Topology topology;
+            try {
+                topology = kind == NETWORK ? readNetwork(file, width, adjacency)
+                        : new Neighbourhood(width, height, radius, Neighbourhood.Shape.values()[shape], kind == TORUS);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+
+            World world = new World(topology, chunked);
+            world.beginRestore(numberOfGroups, uniformThreshold, perAgent);
+            readGrid(file, world, numberOfGroups, bits);
+
+            if (world.getAgentCount() != agentCount) {
+                throw new IOException("Checkpoint contains an unexpected number of agents");
+            }
+
+            if (perAgent) {
+                for (int i = 0; i < world.getSize(); i++) {
+                    if (!world.isEmpty(i)) {
+                        world.restoreThreshold(i, file.ensure(4).getFloat());
+                    }
+                }
+            }
+
+            world.finishRestore(moveCount, tracking);
+
+            try {
+                for (int i = 0; i < unhappy; i++) {
+                    int index = file.ensure(4).getInt();
+
+                    if (index < 0 || index >= world.getSize()) {
+                        throw new IOException("Invalid unhappy cell " + index);
+                    }
+
+                    world.restoreUnhappyCell(index);
+                }
+            } catch (IllegalStateException e) {
+                throw new IOException(e.getMessage());
+            }
+
+            Controller controller = new Controller(world, seed, satisfactionThreshold, controllerGroups, controllerAgents);
+            controller.setScheduler(Controller.Scheduler.values()[scheduler]);
+            controller.setVacancySearch(VacancySearch.Metric.values()[metric], maxRadius);
+
+            if (tileSize > 0) {
+                controller.setParallelSweep(threads, tileSize);
+                controller.getParallelSweep().setSweepCount(sweepCount);
+            }
+
+            controller.getRandom().setState(state);
+            controller.setStepDelta(stepDelta);
+            controller.setStepCount(stepCount);
+
+            return controller;
+        }
+    }
+
+    /**
+     * @return the number of bits needed to store the group plus one of a cell, rounded up to a divisor of 8
+     */
+    private static int bitsPerCell(int numberOfGroups) {
+        if (numberOfGroups <= 1) {
+            return 1;
+        }
+        if (numberOfGroups <= 3) {
+            return 2;
+        }
+        if (numberOfGroups <= 15) {
+            return 4;
+        }
+
+        return 8;
+    }
+
+    private static long gridBytes(int cells, int bits) {
+        return ((long) cells * bits + 7) / 8;
+    }
+
+    private static Network readNetwork(MappedFile file, int nodes, int adjacency) throws IOException {
+        int[] starts = new int[nodes + 1];
+        int[] offsets = new int[adjacency];
+
+        for (int i = 0; i <= nodes; i++) {
+            starts[i] = file.ensure(4).getInt();
+        }
+        for (int k = 0; k < adjacency; k++) {
+            offsets[k] = file.ensure(4).getInt();
+        }
+
+        return new Network(starts, offsets);
+    }
+
+    private static void writeGrid(MappedFile file, World world, int bits) throws IOException {
+        int cellsPerByte = 8 / bits;
+
+        for (int i = 0; i < world.getSize(); i += cellsPerByte) {
+            int packed = 0;
+            int end = Math.min(cellsPerByte, world.getSize() - i);
+
+            for (int j = 0; j < end; j++) {
+                packed |= (world.getGroup(i + j) + 1) << (j * bits);
+            }
+
+            file.ensure(1).put((byte) packed);
+        }
+    }
+
+    private static void readGrid(MappedFile file, World world, int numberOfGroups, int bits) throws IOException {
+        int cellsPerByte = 8 / bits;
+        int mask = (1 << bits) - 1;
+
+        for (int i = 0; i < world.getSize(); i += cellsPerByte) {
+            int packed = file.ensure(1).get() & 0xff;
+            int end = Math.min(cellsPerByte, world.getSize() - i);
+
+            for (int j = 0; j < end; j++) {
+                int value = packed >>> (j * bits) & mask;
+
+                if (value > numberOfGroups) {
+                    throw new IOException("Invalid group in cell " + (i + j));
+                }
+                if (value != 0) {
+                    world.restoreAgent(i + j, value - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * A file accessed through a sequence of memory-mapped windows. ensure makes sure the current window holds a number of
+     * bytes, mapping the next window if it does not, and returns the window positioned at the next byte
+     */
+    private static class MappedFile implements Closeable {
+        private static final long WINDOW = 1L << 30;
+
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long size;
+        // Position in the file of the start of the current window
+        private long start;
+        private MappedByteBuffer window;
+
+        MappedFile(Path path, long size, boolean write) throws IOException {
+            this.channel = write
+                    ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ);
+            this.mode = write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            this.size = size;
+        }
+
+        ByteBuffer ensure(int bytes) throws IOException {
+            if (this.window == null || this.window.remaining() < bytes) {
+                long position = this.position();
+                long length = Math.min(WINDOW, this.size - position);
+
+                if (length < bytes) {
+                    throw new IOException("Unexpected end of checkpoint");
+                }
+
+                this.flush();
+                this.start = position;
+                this.window = this.channel.map(this.mode, position, length);
+            }
+
+            return this.window;
+        }
+
+        long position() {
+            return this.window == null ? 0 : this.start + this.window.position();
+        }
+
+        long size() {
+            return this.size;
+        }
+
+        private void flush() {
+            if (this.window != null && this.mode == FileChannel.MapMode.READ_WRITE) {
+                this.window.force();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.flush();
+            this.channel.close();
+        }
+    }
+}
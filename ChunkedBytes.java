@@ -0,0 +1,273 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An array of bytes that is stored in chunks like a ChunkedInts: chunks in which every element has the same value share one
+ * uniform chunk, and a chunk is only allocated once its elements differ. Like a ChunkedInts it can also be created flat, or
+ * be placed outside the heap by a GridStore.
+ * Besides single elements, the array can be scanned for the next element that differs from a value, which skips the uniform
+ * chunks of that value without reading them.
+ *
+ * Elements in different chunks, or different elements of the same chunk, can be changed concurrently by several threads, but
+ * compact and fill must not run concurrently with any other method.
+ */
+public class ChunkedBytes {
+    /**
+     * The number of elements of a chunk
+     */
+    public static final int CHUNK_SIZE = ChunkedInts.CHUNK_SIZE;
+    private static final int CHUNK_BITS = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private static final int MASK = CHUNK_SIZE - 1;
+    private static final int SEGMENT_BITS = Integer.numberOfTrailingZeros(ChunkedInts.SEGMENT_SIZE);
+    private static final int SEGMENT_MASK = ChunkedInts.SEGMENT_SIZE - 1;
+
+    private final int length;
+    // The elements of a flat array, or null if the array is chunked
+    private final byte[] flat;
+    // The buffers of an array outside the heap, or null
+    private final ByteBuffer[] segments;
+    // Published like the chunks of a ChunkedInts, so a chunk of its own is seen with its copied elements by every thread
+    private final AtomicReferenceArray<byte[]> chunks;
+    private final boolean[] dirty;
+    // The shared uniform chunks by value + 128, allocated when first needed. They are one element longer than a chunk of its
+    // own, which tells them apart
+    private final byte[][] uniform = new byte[256][];
+
+    /**
+     * @param length the number of elements
+     * @param value the initial value of every element
+     * @param chunked true to store the elements in chunks, false to store them in a single array
+     * @throws IllegalArgumentException if the length is negative
+     */
+    public ChunkedBytes(int length, byte value, boolean chunked) throws IllegalArgumentException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+
+        this.length = length;
+        this.flat = chunked ? null : new byte[length];
+        this.segments = null;
+        this.chunks = new AtomicReferenceArray<>(chunked ? (int) (((long) length + MASK) >>> CHUNK_BITS) : 0);
+        this.dirty = new boolean[this.chunks.length()];
+        this.fill(value);
+    }
+
+    /**
+     * Creates an array whose elements are stored in buffers outside the heap. The current contents of the buffers are kept
+     *
+     * @param length the number of elements
+     * @param segments buffers holding ChunkedInts.SEGMENT_SIZE elements each, except the last, which holds the rest
+     */
+    ChunkedBytes(int length, ByteBuffer[] segments) {
+        this.length = length;
+        this.flat = null;
+        this.segments = segments;
+        this.chunks = new AtomicReferenceArray<>(0);
+        this.dirty = new boolean[0];
+    }
+
+    /**
+     * @return the number of elements
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * @return true if the elements are stored in chunks, false if they are stored in a single array or outside the heap
+     */
+    public boolean isChunked() {
+        return this.flat == null && this.segments == null;
+    }
+
+    public byte get(int index) {
+        byte[] flat = this.flat;
+        if (flat != null) {
+            return flat[index];
+        }
+        ByteBuffer[] segments = this.segments;
+        if (segments != null) {
+            return segments[index >>> SEGMENT_BITS].get(index & SEGMENT_MASK);
+        }
+
+        return this.chunks.get(index >>> CHUNK_BITS)[index & MASK];
+    }
+
+    public void set(int index, byte value) {
+        byte[] flat = this.flat;
+        if (flat != null) {
+            flat[index] = value;
+            return;
+        }
+        ByteBuffer[] segments = this.segments;
+        if (segments != null) {
+            segments[index >>> SEGMENT_BITS].put(index & SEGMENT_MASK, value);
+            return;
+        }
+
+        int c = index >>> CHUNK_BITS;
+        byte[] chunk = this.chunks.get(c);
+
+        if (chunk[index & MASK] != value) {
+            this.dirty[c] = true;
+            if (chunk.length != CHUNK_SIZE) {
+                chunk = this.allocate(c);
+            }
+            chunk[index & MASK] = value;
+        }
+    }
+
+    /**
+     * Finds the first element at or after an index that differs from a value
+     *
+     * @param from the index to start at
+     * @param value the value to skip
+     * @return index of the element, or length() if all elements from the index on have the value
+     */
+    public int next(int from, byte value) {
+        int index = from;
+
+        if (this.flat != null) {
+            while (index < this.length && this.flat[index] == value) {
+                index++;
+            }
+
+            return index;
+        }
+        if (this.segments != null) {
+            while (index < this.length && this.get(index) == value) {
+                index++;
+            }
+
+            return index;
+        }
+
+        while (index < this.length) {
+            byte[] chunk = this.chunks.get(index >>> CHUNK_BITS);
+
+            if (chunk.length != CHUNK_SIZE && chunk[0] == value) {
+                index = (index | MASK) + 1;
+                continue;
+            }
+
+            int end = Math.min(this.length, (index | MASK) + 1);
+            for (; index < end; index++) {
+                if (chunk[index & MASK] != value) {
+                    return index;
+                }
+            }
+        }
+
+        return this.length;
+    }
+
+    /**
+     * Sets every element to the same value, releasing all chunks
+     *
+     * @param value the new value of every element
+     */
+    public void fill(byte value) {
+        if (this.flat != null) {
+            Arrays.fill(this.flat, value);
+            return;
+        }
+        if (this.segments != null) {
+            for (int i = 0; i < this.length; i++) {
+                this.set(i, value);
+            }
+            return;
+        }
+
+        byte[] shared = this.getUniform(value);
+
+        for (int c = 0; c < this.chunks.length(); c++) {
+            this.chunks.set(c, shared);
+            this.dirty[c] = false;
+        }
+    }
+
+    /**
+     * Replaces every chunk that has been changed since the last compaction and whose elements all have the same value by the
+     * shared uniform chunk of that value
+     *
+     * @return the number of chunks released
+     */
+    public int compact() {
+        int released = 0;
+
+        for (int c = 0; c < this.dirty.length; c++) {
+            if (this.dirty[c]) {
+                this.dirty[c] = false;
+                byte[] chunk = this.chunks.get(c);
+
+                if (chunk.length == CHUNK_SIZE && isUniform(chunk)) {
+                    this.chunks.set(c, this.getUniform(chunk[0]));
+                    released++;
+                }
+            }
+        }
+
+        return released;
+    }
+
+    /**
+     * @return the number of chunks that are not shared
+     */
+    public int getAllocatedChunks() {
+        int allocated = 0;
+
+        for (int c = 0; c < this.chunks.length(); c++) {
+            if (this.chunks.get(c).length == CHUNK_SIZE) {
+                allocated++;
+            }
+        }
+
+        return allocated;
+    }
+
+    /**
+     * @return the number of bytes taken by the chunks that are not shared, or by the elements of an array that is not chunked
+     */
+    public long getAllocatedBytes() {
+        return !this.isChunked() ? this.length : (long) CHUNK_SIZE * this.getAllocatedChunks();
+    }
+
+    /**
+     * Gives a chunk an array of its own, unless another thread has just done so
+     */
+    private synchronized byte[] allocate(int c) {
+        byte[] chunk = this.chunks.get(c);
+
+        if (chunk.length != CHUNK_SIZE) {
+            chunk = Arrays.copyOf(chunk, CHUNK_SIZE);
+            this.chunks.set(c, chunk);
+        }
+
+        return chunk;
+    }
+
+    private synchronized byte[] getUniform(byte value) {
+        byte[] shared = this.uniform[value + 128];
+
+        if (shared == null) {
+            shared = new byte[CHUNK_SIZE + 1];
+            Arrays.fill(shared, value);
+            this.uniform[value + 128] = shared;
+        }
+
+        return shared;
+    }
+
+    private static boolean isUniform(byte[] chunk) {
+        byte value = chunk[0];
+
+        for (int i = 1; i < chunk.length; i++) {
+            if (chunk[i] != value) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,269 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An array of ints that is stored in chunks of CHUNK_SIZE consecutive elements, of which only the chunks that hold different
+ * values are allocated. A chunk in which every element has the same value is represented by a uniform chunk that is shared by
+ * all such chunks, so a large array that is mostly zero, or mostly any other value, takes little memory. A uniform chunk is
+ * replaced by a chunk of its own as soon as one of its elements is changed; compact turns chunks that have become uniform
+ * again back into shared ones.
+ *
+ * Looking up an element costs a shift, a mask and two array reads, regardless of whether its chunk is shared. Since that is
+ * measurably slower than reading a single array when the memory is not needed, an array can also be created flat: its
+ * elements are then stored in one array of its own and nothing is ever shared. Finally, a GridStore can place the elements
+ * outside the heap, in buffers of SEGMENT_SIZE elements that may be mapped from a file; such an array is not shared either.
+ *
+ * Elements in different chunks, or different elements of the same chunk, can be changed concurrently by several threads, but
+ * compact and fill must not run concurrently with any other method.
+ */
+public class ChunkedInts {
+    /**
+     * The number of elements of a chunk, the same number as in a tile of 64 x 64 cells
+     */
+    public static final int CHUNK_SIZE = 1 << 12;
+    private static final int CHUNK_BITS = 12;
+    private static final int MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The number of elements of each buffer of an array outside the heap, except the last one
+     */
+    static final int SEGMENT_SIZE = 1 << 28;
+    private static final int SEGMENT_BITS = 28;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final int length;
+    // The elements of a flat array, or null if the array is chunked
+    private final int[] flat;
+    // The buffers of an array outside the heap, or null
+    private final ByteBuffer[] segments;
+    // A chunk of its own is allocated under the lock of the array and filled before it is stored, so two threads that change
+    // elements of the same shared chunk at the same time end up writing to the same new chunk. Chunks are published through
+    // an AtomicReferenceArray, so a thread that sees the new chunk without taking the lock also sees the copied elements
+    private final AtomicReferenceArray<int[]> chunks;
+    // Chunks that may have been changed since the last compaction
+    private final boolean[] dirty;
+    // The shared uniform chunks by value. They are one element longer than a chunk of its own, which tells them apart
+    private final Map<Integer, int[]> uniform = new HashMap<>();
+
+    /**
+     * @param length the number of elements
+     * @param value the initial value of every element
+     * @param chunked true to store the elements in chunks, false to store them in a single array
+     * @throws IllegalArgumentException if the length is negative
+     */
+    public ChunkedInts(int length, int value, boolean chunked) throws IllegalArgumentException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+
+        this.length = length;
+        this.flat = chunked ? null : new int[length];
+        this.segments = null;
+        this.chunks = new AtomicReferenceArray<>(chunked ? (int) (((long) length + MASK) >>> CHUNK_BITS) : 0);
+        this.dirty = new boolean[this.chunks.length()];
+        this.fill(value);
+    }
+
+    /**
+     * Creates an array whose elements are stored in buffers outside the heap, as little-endian ints. The current contents of
+     * the buffers are kept
+     *
+     * @param length the number of elements
+     * @param segments buffers holding SEGMENT_SIZE elements each, except the last, which holds the rest
+     */
+    ChunkedInts(int length, ByteBuffer[] segments) {
+        this.length = length;
+        this.flat = null;
+        this.segments = segments;
+        this.chunks = new AtomicReferenceArray<>(0);
+        this.dirty = new boolean[0];
+    }
+
+    /**
+     * @return true if the elements are stored in chunks, false if they are stored in a single array or outside the heap
+     */
+    public boolean isChunked() {
+        return this.flat == null && this.segments == null;
+    }
+
+    /**
+     * @return the number of elements
+     */
+    public int length() {
+        return this.length;
+    }
+
+    public int get(int index) {
+        int[] flat = this.flat;
+        if (flat != null) {
+            return flat[index];
+        }
+        ByteBuffer[] segments = this.segments;
+        if (segments != null) {
+            return segments[index >>> SEGMENT_BITS].getInt((index & SEGMENT_MASK) << 2);
+        }
+
+        return this.chunks.get(index >>> CHUNK_BITS)[index & MASK];
+    }
+
+    public void set(int index, int value) {
+        int[] flat = this.flat;
+        if (flat != null) {
+            flat[index] = value;
+            return;
+        }
+        ByteBuffer[] segments = this.segments;
+        if (segments != null) {
+            segments[index >>> SEGMENT_BITS].putInt((index & SEGMENT_MASK) << 2, value);
+            return;
+        }
+
+        int c = index >>> CHUNK_BITS;
+        int[] chunk = this.chunks.get(c);
+
+        if (chunk[index & MASK] != value) {
+            this.writable(c, chunk)[index & MASK] = value;
+        }
+    }
+
+    /**
+     * Adds a number to an element
+     *
+     * @param index index of the element
+     * @param delta the number to add
+     */
+    public void add(int index, int delta) {
+        int[] flat = this.flat;
+        if (flat != null) {
+            flat[index] += delta;
+            return;
+        }
+        ByteBuffer[] segments = this.segments;
+        if (segments != null) {
+            ByteBuffer segment = segments[index >>> SEGMENT_BITS];
+            int offset = (index & SEGMENT_MASK) << 2;
+            segment.putInt(offset, segment.getInt(offset) + delta);
+            return;
+        }
+
+        int c = index >>> CHUNK_BITS;
+        this.writable(c, this.chunks.get(c))[index & MASK] += delta;
+    }
+
+    /**
+     * Sets every element to the same value, releasing all chunks
+     *
+     * @param value the new value of every element
+     */
+    public void fill(int value) {
+        if (this.flat != null) {
+            Arrays.fill(this.flat, value);
+            return;
+        }
+        if (this.segments != null) {
+            for (int i = 0; i < this.length; i++) {
+                this.set(i, value);
+            }
+            return;
+        }
+
+        int[] shared = this.getUniform(value);
+
+        for (int c = 0; c < this.chunks.length(); c++) {
+            this.chunks.set(c, shared);
+            this.dirty[c] = false;
+        }
+    }
+
+    /**
+     * Replaces every chunk that has been changed since the last compaction and whose elements all have the same value by the
+     * shared uniform chunk of that value
+     *
+     * @return the number of chunks released
+     */
+    public int compact() {
+        int released = 0;
+
+        for (int c = 0; c < this.dirty.length; c++) {
+            if (this.dirty[c]) {
+                this.dirty[c] = false;
+                int[] chunk = this.chunks.get(c);
+
+                if (chunk.length == CHUNK_SIZE && isUniform(chunk)) {
+                    this.chunks.set(c, this.getUniform(chunk[0]));
+                    released++;
+                }
+            }
+        }
+
+        return released;
+    }
+
+    /**
+     * @return the number of chunks that are not shared
+     */
+    public int getAllocatedChunks() {
+        int allocated = 0;
+
+        for (int c = 0; c < this.chunks.length(); c++) {
+            if (this.chunks.get(c).length == CHUNK_SIZE) {
+                allocated++;
+            }
+        }
+
+        return allocated;
+    }
+
+    /**
+     * @return the number of bytes taken by the chunks that are not shared, or by the elements of an array that is not chunked
+     */
+    public long getAllocatedBytes() {
+        return !this.isChunked() ? 4L * this.length : 4L * CHUNK_SIZE * this.getAllocatedChunks();
+    }
+
+    private int[] writable(int c, int[] chunk) {
+        this.dirty[c] = true;
+        return chunk.length == CHUNK_SIZE ? chunk : this.allocate(c);
+    }
+
+    /**
+     * Gives a chunk an array of its own, unless another thread has just done so
+     */
+    private synchronized int[] allocate(int c) {
+        int[] chunk = this.chunks.get(c);
+
+        if (chunk.length != CHUNK_SIZE) {
+            chunk = Arrays.copyOf(chunk, CHUNK_SIZE);
+            this.chunks.set(c, chunk);
+        }
+
+        return chunk;
+    }
+
+    private synchronized int[] getUniform(int value) {
+        int[] shared = this.uniform.get(value);
+
+        if (shared == null) {
+            shared = new int[CHUNK_SIZE + 1];
+            Arrays.fill(shared, value);
+            this.uniform.put(value, shared);
+        }
+
+        return shared;
+    }
+
+    private static boolean isUniform(int[] chunk) {
+        int value = chunk[0];
+
+        for (int i = 1; i < chunk.length; i++) {
+            if (chunk[i] != value) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -1,5 +1,3 @@
-import java.util.Collections;
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -7,11 +5,31 @@ import java.util.Random;
  */
 public class Controller
 {
+	/**
+	 * Strategies for choosing the agent that moves in a step
+	 */
+	public enum Scheduler
+	{
+		// Pick a random agent among all agents; happy agents stay where they are
+		RANDOM_ORDER,
+		// Pick a random agent among the currently unhappy agents only
+		UNHAPPY_WORKLIST
+	}
+
 	private final World world;
-	private final Random random;
+	private final long seed;
+	private final SimulationRandom random;
+	private VacancySearch vacancySearch;
 	private double satisfactionThreshold;
 	private int numberOfAgents, numberOfGroups;
 	private int stepDelta;
+	private long stepCount;
+	// Number of agents that have tried to move since an agent last moved, used to decide when to check for convergence
+	private long idleAttempts;
+	private Scheduler scheduler = Scheduler.RANDOM_ORDER;
+	private ParallelSweep parallelSweep;
+	// Cells of the agents, shuffled every step by the RANDOM_ORDER scheduler. Kept between steps so a step allocates nothing
+	private int[] order;
 	
 	/**
 	 * Constructor which creates a simulation based on a current World state.
@@ -23,7 +41,9 @@ public class Controller
 	public Controller(World w, long seed, double satisfactionThreshold, int numberOfGroups, int numberOfAgents)
 	{
 		world = w;
-		random = new Random(seed);
+		this.seed = seed;
+		random = new SimulationRandom(seed);
+		vacancySearch = new VacancySearch(VacancySearch.Metric.CHEBYSHEV, 0, random);
 		this.satisfactionThreshold = satisfactionThreshold;
 		this.stepDelta = 0;
 		this.numberOfGroups = numberOfGroups;
@@ -33,7 +53,9 @@ public class Controller
 	public Controller(World w, double satisfactionThreshold, int numberOfGroups, int numberOfAgents)
 	{
 		world = w;
-		random = new Random();
+		seed = new Random().nextLong();
+		random = new SimulationRandom(seed);
+		vacancySearch = new VacancySearch(VacancySearch.Metric.CHEBYSHEV, 0, random);
 		this.satisfactionThreshold = satisfactionThreshold;
 		this.stepDelta = 0;
 		this.numberOfGroups = numberOfGroups;
@@ -57,39 +79,100 @@ public class Controller
 		return this.satisfactionThreshold;
 	}
 
+	/**
+	 * @return the seed from which all random events of this simulation are derived
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+
+	public void setScheduler(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public Scheduler getScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * Changes how unhappy agents look for a new location
+	 * @param metric distance measure by which the nearest vacancy is determined
+	 * @param maxRadius largest distance an agent looks for a vacancy, or 0 to search the whole world
+	 */
+	public void setVacancySearch(VacancySearch.Metric metric, int maxRadius) {
+		this.vacancySearch = new VacancySearch(metric, maxRadius, this.random);
+	}
+
+	public VacancySearch getVacancySearch() {
+		return this.vacancySearch;
+	}
+
+	/**
+	 * Changes which cells are neighbours of each other in the world. The neighbour counters of all cells are recomputed
+	 * at once
+	 * @param topology the new topology, with the same dimensions as the world
+	 */
+	public void setTopology(Topology topology)
+	{
+		synchronized (world) {
+			world.setTopology(topology);
+			this.idleAttempts = 0;
+		}
+	}
+
 	/**
 	 * Creates a new Human or a new Zombie at a random spot.
 	 * Modify this method if you want to play around with the simulator.
 	 */
 	public void createRandomAgent() {
-		int x = this.random.nextInt(world.getWidth());
-		int y = this.random.nextInt(world.getHeight());
-		Cell cell = world.getCell(x, y);
-
-		while (!cell.isEmpty()) {
-			x = this.random.nextInt(world.getWidth());
-			y = this.random.nextInt(world.getHeight());
-			cell = world.getCell(x, y);
+		int index = this.random.nextInt(world.getSize());
+
+		while (!world.isEmpty(index)) {
+			index = this.random.nextInt(world.getSize());
 		}
 
-		Agent agent;
+		world.addAgent(index, randomGroup(), this.satisfactionThreshold);
+	}
 
-		for (int i = 0; i < numberOfGroups; i++) {
-			if (this.random.nextDouble() < (double) (i + 1) / numberOfGroups) {
-				agent = new Agent(i, this.satisfactionThreshold, cell);
-				agent.moveTo(cell);
-				return;
+	/**
+	 * Creates a random neighbourhood of agents. The agents are placed by a partial Fisher-Yates shuffle of the empty
+	 * cells, so filling the world takes linear time regardless of the density. If there are fewer empty cells than
+	 * agents, every empty cell receives an agent
+	 */
+	public void createRandomNeighbourhood() {
+		int[] free = new int[world.getSize() - world.getAgentCount()];
+		int n = 0;
+
+		for (int i = 0; i < world.getSize(); i++) {
+			if (world.isEmpty(i)) {
+				free[n++] = i;
 			}
 		}
+
+		int agents = Math.min(this.numberOfAgents, n);
+
+		for (int i = 0; i < agents; i++) {
+			int j = i + this.random.nextInt(n - i);
+			int index = free[j];
+			free[j] = free[i];
+			free[i] = index;
+
+			world.addAgent(index, randomGroup(), this.satisfactionThreshold);
+		}
 	}
 
 	/**
-	 * Creates a random neighbourhood of agents
+	 * Draws the group of a new agent
+	 * @return a random group
 	 */
-	public void createRandomNeighbourhood() {
-		for (int i = 0; i < this.numberOfAgents; i++) {
-			createRandomAgent();
+	private int randomGroup() {
+		for (int i = 0; i < numberOfGroups - 1; i++) {
+			if (this.random.nextDouble() < (double) (i + 1) / numberOfGroups) {
+				return i;
+			}
 		}
+
+		return numberOfGroups - 1;
 	}
 
 	/**
@@ -109,19 +192,179 @@ public class Controller
 	}
 
 	/**
-	 * Perform a step in the simulation
+	 * Perform a step in the simulation. The world is locked during the step, so other threads that synchronize on the
+	 * world, such as a MetricsSampler, see it either before or after the step
 	 */
 	public void step()
 	{
-		List<Agent> agents = world.getAgents();
-		Collections.shuffle(agents);
+		synchronized (world) {
+			this.stepCount++;
+			long moves = world.getMoveCount();
+
+			if (this.scheduler == Scheduler.UNHAPPY_WORKLIST) {
+				stepUnhappy();
+			} else {
+				int agents = world.getAgentCount();
+				this.order = world.getAgentCells(this.order);
+				shuffle(this.order, agents);
+
+				// Let all creatures move
+				new Agent(world, this.order[this.stepDelta]).move(this.vacancySearch);
+				this.stepDelta++;
+
+				if (this.stepDelta == agents - 1) {
+					this.stepDelta = 0;
+				}
+			}
+
+			this.idleAttempts = world.getMoveCount() == moves ? this.idleAttempts + 1 : 0;
+		}
+	}
+
+	/**
+	 * Shuffles the first length cells of an array with the random numbers Collections.shuffle would draw for a list of the
+	 * same length, so the order of the agents is the same as when they were shuffled as a list of Agents
+	 */
+	private void shuffle(int[] cells, int length)
+	{
+		for (int i = length; i > 1; i--) {
+			int j = this.random.nextInt(i);
+			int cell = cells[i - 1];
+			cells[i - 1] = cells[j];
+			cells[j] = cell;
+		}
+	}
+
+	/**
+	 * Perform a step in which a random unhappy agent moves. The world keeps the set of unhappy agents up to date,
+	 * so the cost of a step does not depend on the number of agents
+	 */
+	private void stepUnhappy()
+	{
+		int unhappy = world.getUnhappyCount();
+
+		if (unhappy > 0) {
+			int index = world.getUnhappyCell(this.random.nextInt(unhappy));
+			new Agent(world, index).move(this.vacancySearch);
+		}
+	}
+
+	/**
+	 * @return the random number generator of this simulation
+	 */
+	public SimulationRandom getRandom() {
+		return this.random;
+	}
+
+	/**
+	 * @return the position in the shuffled agent list used by the RANDOM_ORDER scheduler
+	 */
+	public int getStepDelta() {
+		return this.stepDelta;
+	}
+
+	void setStepDelta(int stepDelta) {
+		this.stepDelta = stepDelta;
+	}
+
+	/**
+	 * @return the number of steps performed so far
+	 */
+	public long getStepCount() {
+		return this.stepCount;
+	}
+
+	void setStepCount(long stepCount) {
+		this.stepCount = stepCount;
+	}
 
-		// Let all creatures move
-		agents.get(this.stepDelta).move();
-		this.stepDelta++;
+	/**
+	 * @return the configuration of the sweeps performed by sweep(), or null if sweep() has not been configured
+	 */
+	public ParallelSweep getParallelSweep() {
+		return this.parallelSweep;
+	}
+
+	/**
+	 * Configures the sweeps performed by sweep(). The threads are only started by the first sweep; the threads of a
+	 * previously configured sweep are shut down
+	 * @param threads the number of threads moving agents in parallel
+	 * @param tileSize width and height of the tiles the world is partitioned into
+	 */
+	public void setParallelSweep(int threads, int tileSize)
+	{
+		ParallelSweep sweep = new ParallelSweep(world, seed, tileSize, threads);
+
+		if (this.parallelSweep != null) {
+			this.parallelSweep.close();
+		}
+		this.parallelSweep = sweep;
+	}
+
+	/**
+	 * Perform a synchronous sweep in which every unhappy agent tries to move once, processing tiles of the world in
+	 * parallel. Unless configured with setParallelSweep, all available processors are used with 64 x 64 tiles.
+	 * Like step, the sweep locks the world
+	 * @return the number of agents that moved
+	 */
+	public long sweep()
+	{
+		if (this.parallelSweep == null) {
+			setParallelSweep(Runtime.getRuntime().availableProcessors(), 64);
+		}
+
+		synchronized (world) {
+			long moves = this.parallelSweep.sweep(this.vacancySearch);
+
+			// A sweep in which nobody moved is a full pass over all agents
+			this.idleAttempts = moves == 0 ? this.idleAttempts + world.getAgentCount() : 0;
+			return moves;
+		}
+	}
+
+	/**
+	 * Determines whether the simulation has reached an equilibrium, in which either every agent is satisfied or no unhappy
+	 * agent can find a vacancy in which it would be satisfied. Further steps and sweeps then leave the world unchanged.
+	 * The check is cheap as long as agents keep moving: every unhappy agent is only searched for a vacancy once a full
+	 * pass of steps, or a sweep, has gone by without any agent moving. That search does not draw random numbers, so
+	 * checking for convergence does not change the course of the simulation.
+	 * Before the first step or sweep, and after the world was changed by other means, the simulation is not considered
+	 * converged until another step or sweep has been performed
+	 * @return true if no step or sweep will change the world anymore
+	 */
+	public boolean isConverged()
+	{
+		synchronized (world) {
+			if (this.idleAttempts == 0) {
+				return false;
+			}
+
+			int unhappy = world.getUnhappyCount();
+
+			if (unhappy == 0) {
+				return true;
+			}
+
+			// The worklist picks among the unhappy agents, random order among all agents
+			long pass = this.scheduler == Scheduler.UNHAPPY_WORKLIST ? unhappy : world.getAgentCount();
+
+			if (this.idleAttempts < pass) {
+				return false;
+			}
+
+			VacancySearch search = this.vacancySearch.withRandom(null);
+
+			for (int i = 0; i < unhappy; i++) {
+				int index = world.getUnhappyCell(i);
+
+				if (search.find(world, index, world.getGroup(index), world.getThreshold(index)) >= 0) {
+					// An agent was unlucky rather than stuck; check again after another full pass
+					this.idleAttempts = 0;
+					return false;
+				}
+			}
 
-		if (this.stepDelta == agents.size() - 1) {
-			this.stepDelta = 0;
+			return true;
 		}
 	}
 
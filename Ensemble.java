@@ -0,0 +1,354 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent simulations for every combination of parameters and summarises the distribution of the outcomes. For
+ * every combination of threshold, density and number of groups, runs simulations are performed whose seeds are derived from the
+ * seed and the number of the run by StreamRandom.streamSeed, so all combinations are run with the same seeds, and runs with
+ * neighbouring numbers do not start from correlated random streams as they would with the seeds seed, seed + 1, .... The
+ * simulations run concurrently on a pool of threads, one simulation per thread. Every interval steps the segregation and
+ * unhappiness of a run are sampled. The final samples of all runs are added to a RunningStatistics, so no trajectory is kept in
+ * memory; only when trajectories are written are the samples of every step summarised as well, with a coarser histogram for
+ * their median. A run ends as soon as the simulation has converged (see Controller.isConverged); since its world no longer
+ * changes, its remaining samples are equal to the last one.
+ *
+ * For every combination one line is printed as CSV, with the mean, standard deviation, minimum, quartiles, 5th and 95th
+ * percentile and maximum of the final segregation and unhappiness, and the number of runs that converged with their mean number
+ * of steps and time until convergence. With --trajectories=file the mean, standard deviation and median at every sampled step
+ * are written to a file as well.
+ *
+ * Usage: java Ensemble [--config=file] [--runs=100] [--thresholds=0.35] [--densities=0.76] [--groups=2] [--width=50]
+ * [--height=50] [--topology=grid|torus|network] [--network=file] [--radius=1] [--shape=MOORE|VON_NEUMANN|HEXAGONAL]
+ * [--seed=1234] [--steps=100000] [--interval=1000] [--scheduler=UNHAPPY_WORKLIST] [--metric=CHEBYSHEV] [--searchRadius=0]
+ * [--mode=step|sweep] [--tileSize=64] [--threads=cores] [--trajectories=file]
+ *
+ * In sweep mode every run sweeps on a single thread, since the runs themselves already occupy all threads. The Topology is
+ * created once and shared by all runs.
+ */
+public class Ensemble {
+    private static final double[] QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+    // Bins of the histograms of the sampled steps, whose median is only written to the trajectories
+    private static final int TRAJECTORY_BINS = 100;
+
+    private final SimulationConfig config;
+    private Topology topology;
+
+    public Ensemble(SimulationConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) {
+        try {
+            Ensemble ensemble = new Ensemble(new SimulationConfig(args));
+            ensemble.print(ensemble.run());
+        } catch (IllegalArgumentException | IOException | InterruptedException e) {
+            System.err.println("Ensemble: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Performs all runs of all combinations of parameters
+     *
+     * @return the summary of every combination
+     * @throws IOException if the network cannot be read
+     * @throws InterruptedException if the thread is interrupted while waiting for the runs
+     */
+    public List<Summary> run() throws IOException, InterruptedException {
+        this.topology = this.config.createTopology();
+        if (this.config.isSweepMode() && !this.topology.isBoundedGrid()) {
+            throw new IllegalArgumentException("Sweeps need a bounded grid");
+        }
+        int runs = this.config.getInt("runs", 100);
+        long seed = this.config.getSeed();
+        long start = System.nanoTime();
+        List<Summary> summaries = new ArrayList<>();
+
+        for (String threshold : this.config.getString("thresholds", Double.toString(this.config.getThreshold())).split(",")) {
+            for (String density : this.config.getString("densities", Double.toString(this.config.getDensity())).split(",")) {
+                for (String groups : this.config.getString("groups", "2").split(",")) {
+                    Properties properties = this.config.getProperties();
+                    properties.setProperty("threshold", threshold.trim());
+                    properties.setProperty("density", density.trim());
+                    properties.setProperty("groups", groups.trim());
+
+                    if (this.config.isSweepMode()) {
+                        properties.setProperty("threads", "1");
+                    }
+
+                    summaries.add(new Summary(new SimulationConfig(properties)));
+                }
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.config.getThreads());
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (Summary summary : summaries) {
+                for (int run = 0; run < runs; run++) {
+                    long runSeed = StreamRandom.streamSeed(seed, run);
+                    futures.add(pool.submit(() -> this.simulate(summary, runSeed)));
+                }
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Run failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.err.printf("%d runs in %.3f s%n", (long) runs * summaries.size(), (System.nanoTime() - start) / 1e9);
+        return summaries;
+    }
+
+    /**
+     * Performs a single run and adds its samples to the summary of its combination of parameters
+     */
+    private void simulate(Summary summary, long seed) {
+        Properties properties = summary.config.getProperties();
+        properties.setProperty("seed", Long.toString(seed));
+
+        SimulationConfig config = new SimulationConfig(properties);
+        Controller controller = config.createController(this.topology);
+        World world = controller.getWorld();
+        long steps = config.getSteps();
+        long interval = config.getInterval();
+        boolean sweep = config.isSweepMode();
+        int sample = 0;
+        long start = System.nanoTime();
+
+        summary.add(sample++, world.getSegregation(), world.getUnhappiness());
+
+        try {
+            for (long step = 1; step <= steps; step++) {
+                if (sweep) {
+                    controller.sweep();
+                } else {
+                    controller.step();
+                }
+
+                if (step % interval == 0 || step == steps) {
+                    summary.add(sample++, world.getSegregation(), world.getUnhappiness());
+                }
+
+                if (controller.isConverged()) {
+                    summary.addConvergence(step, (System.nanoTime() - start) / 1e9);
+                    break;
+                }
+            }
+        } finally {
+            controller.getParallelSweep().close();
+        }
+
+        summary.addRemaining(sample, world.getSegregation(), world.getUnhappiness());
+    }
+
+    /**
+     * Prints one line per combination of parameters and writes the trajectories if requested
+     *
+     * @param summaries the summaries returned by run
+     * @throws IOException if the trajectories cannot be written
+     */
+    public void print(List<Summary> summaries) throws IOException {
+        StringBuilder header = new StringBuilder("threshold,density,groups,runs,converged,convergence_steps_mean,"
+                + "convergence_time_mean");
+        for (String metric : new String[] {"segregation", "unhappiness"}) {
+            header.append(',').append(metric).append("_mean,").append(metric).append("_sd,").append(metric).append("_min");
+            for (double q : QUANTILES) {
+                header.append(',').append(metric).append("_p").append(Math.round(q * 100));
+            }
+            header.append(',').append(metric).append("_max");
+        }
+        System.out.println(header);
+
+        for (Summary summary : summaries) {
+            StringBuilder line = new StringBuilder(summary.getParameters());
+            line.append(',').append(summary.getFinalSegregation().getCount()).append(',').append(summary.getConverged());
+            line.append(',').append(summary.getMeanConvergenceSteps()).append(',').append(summary.getMeanConvergenceTime());
+            for (RunningStatistics statistics : new RunningStatistics[] {summary.getFinalSegregation(),
+                    summary.getFinalUnhappiness()}) {
+                line.append(',').append(statistics.getMean()).append(',').append(statistics.getStandardDeviation());
+                line.append(',').append(statistics.getMin());
+                for (double q : QUANTILES) {
+                    line.append(',').append(statistics.getQuantile(q));
+                }
+                line.append(',').append(statistics.getMax());
+            }
+            System.out.println(line);
+        }
+
+        String trajectories = this.config.getString("trajectories", "");
+        if (!trajectories.isEmpty()) {
+            try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(trajectories), StandardCharsets.US_ASCII)))) {
+                out.println("threshold,density,groups,step,segregation_mean,segregation_sd,segregation_median,"
+                        + "unhappiness_mean,unhappiness_sd,unhappiness_median");
+
+                for (Summary summary : summaries) {
+                    for (int sample = 0; sample < summary.getSamples(); sample++) {
+                        RunningStatistics segregation = summary.getSegregation(sample);
+                        RunningStatistics unhappiness = summary.getUnhappiness(sample);
+                        out.println(summary.getParameters() + "," + summary.getStep(sample) + ","
+                                + segregation.getMean() + "," + segregation.getStandardDeviation() + ","
+                                + segregation.getQuantile(0.5) + "," + unhappiness.getMean() + ","
+                                + unhappiness.getStandardDeviation() + "," + unhappiness.getQuantile(0.5));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The statistics of all runs of one combination of parameters. The final sample is summarised with the full histogram of a
+     * RunningStatistics; every sampled step only gets statistics of its own if trajectories are written, with a histogram of
+     * TRAJECTORY_BINS bins. Runs add their samples concurrently
+     */
+    public static class Summary {
+        private final SimulationConfig config;
+        private final long steps, interval;
+        private final int samples;
+        private final RunningStatistics finalSegregation = new RunningStatistics();
+        private final RunningStatistics finalUnhappiness = new RunningStatistics();
+        private final RunningStatistics[] segregation, unhappiness;
+        private long converged;
+        private double convergenceSteps, convergenceTime;
+
+        Summary(SimulationConfig config) {
+            this.config = config;
+            this.steps = config.getSteps();
+            this.interval = config.getInterval();
+
+            if (this.steps < 0) {
+                throw new IllegalArgumentException("Invalid number of steps");
+            }
+            if (this.steps / this.interval > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Too many samples, increase the interval");
+            }
+            this.samples = (int) (this.steps / this.interval) + (this.steps % this.interval == 0 ? 1 : 2);
+
+            int trajectory = config.getString("trajectories", "").isEmpty() ? 0 : this.samples;
+            this.segregation = new RunningStatistics[trajectory];
+            this.unhappiness = new RunningStatistics[trajectory];
+
+            for (int sample = 0; sample < trajectory; sample++) {
+                this.segregation[sample] = new RunningStatistics(TRAJECTORY_BINS);
+                this.unhappiness[sample] = new RunningStatistics(TRAJECTORY_BINS);
+            }
+        }
+
+        synchronized void add(int sample, double segregation, double unhappiness) {
+            if (sample < this.segregation.length) {
+                this.segregation[sample].add(segregation);
+                this.unhappiness[sample].add(unhappiness);
+            }
+            if (sample == this.samples - 1) {
+                this.finalSegregation.add(segregation);
+                this.finalUnhappiness.add(unhappiness);
+            }
+        }
+
+        /**
+         * Adds the same values for a sample and all samples after it, for a run that has converged
+         */
+        synchronized void addRemaining(int sample, double segregation, double unhappiness) {
+            for (int i = sample; i < this.segregation.length; i++) {
+                this.segregation[i].add(segregation);
+                this.unhappiness[i].add(unhappiness);
+            }
+            if (sample < this.samples) {
+                this.finalSegregation.add(segregation);
+                this.finalUnhappiness.add(unhappiness);
+            }
+        }
+
+        synchronized void addConvergence(long steps, double seconds) {
+            this.converged++;
+            this.convergenceSteps += steps;
+            this.convergenceTime += seconds;
+        }
+
+        /**
+         * @return the threshold, density and number of groups of the runs, separated by commas
+         */
+        public String getParameters() {
+            return this.config.getThreshold() + "," + this.config.getDensity() + "," + this.config.getNumberOfGroups();
+        }
+
+        /**
+         * @return the number of samples taken by every run, including the initial and the final one
+         */
+        public int getSamples() {
+            return this.samples;
+        }
+
+        /**
+         * @param sample index of a sample
+         * @return the step at which the sample was taken
+         */
+        public long getStep(int sample) {
+            return Math.min(this.steps, sample * this.interval);
+        }
+
+        /**
+         * @param sample index of a sample
+         * @return the statistics of the segregation at the sample, with a coarse histogram
+         * @throws ArrayIndexOutOfBoundsException if no trajectories are written
+         */
+        public synchronized RunningStatistics getSegregation(int sample) {
+            return this.segregation[sample];
+        }
+
+        /**
+         * @param sample index of a sample
+         * @return the statistics of the unhappiness at the sample, with a coarse histogram
+         * @throws ArrayIndexOutOfBoundsException if no trajectories are written
+         */
+        public synchronized RunningStatistics getUnhappiness(int sample) {
+            return this.unhappiness[sample];
+        }
+
+        /**
+         * @return the number of runs that converged within the number of steps
+         */
+        public synchronized long getConverged() {
+            return this.converged;
+        }
+
+        /**
+         * @return the mean number of steps until convergence of the runs that converged, or NaN if none did
+         */
+        public synchronized double getMeanConvergenceSteps() {
+            return this.converged == 0 ? Double.NaN : this.convergenceSteps / this.converged;
+        }
+
+        /**
+         * @return the mean time until convergence in seconds of the runs that converged, or NaN if none did
+         */
+        public synchronized double getMeanConvergenceTime() {
+            return this.converged == 0 ? Double.NaN : this.convergenceTime / this.converged;
+        }
+
+        public synchronized RunningStatistics getFinalSegregation() {
+            return this.finalSegregation;
+        }
+
+        public synchronized RunningStatistics getFinalUnhappiness() {
+            return this.finalUnhappiness;
+        }
+    }
+}
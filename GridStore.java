@@ -0,0 +1,366 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the state of the cells of a World outside the heap: the group of every cell, the number of occupied neighbours and the
+ * number of neighbours of every group. The state is either held in direct buffers, so a very large World does not burden the
+ * garbage collector, or mapped from a grid file, so the World can also be larger than the memory, can be reopened without
+ * reading the grid, and can be watched while it runs by other processes that map the same file. Such a reader sees every cell
+ * change as soon as it is made, but no consistent snapshot of the grid.
+ *
+ * A grid file consists of
+ * <ul>
+ * <li>a header of HEADER_SIZE bytes: magic, version, width, height, kind of Topology (0 for a bounded grid, 1 for a torus and 2
+ * for a network), shape and radius of the neighbourhood, number of groups and the threshold shared by the agents;</li>
+ * <li>the group of every cell as a byte, -1 for an empty cell, padded to a multiple of 8 bytes;</li>
+ * <li>the number of occupied neighbours of every cell as an int;</li>
+ * <li>for every group, the number of neighbours of every cell belonging to that group as an int.</li>
+ * </ul>
+ * All numbers are little-endian. The adjacency of a network is not part of the file and must be supplied when it is opened,
+ * and thresholds that differ per agent are not kept.
+ *
+ * The planes are split into buffers of ChunkedInts.SEGMENT_SIZE cells, so a World can have up to 2^31 - 1 cells. Buffers
+ * outside the heap are only released when they are garbage collected, so a GridStore should be used for few large worlds
+ * rather than many small ones.
+ */
+public class GridStore implements Closeable {
+    /**
+     * First bytes of a grid file
+     */
+    public static final int MAGIC = 0x53475244;
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header of a grid file, after which the planes start
+     */
+    public static final int HEADER_SIZE = 64;
+
+    // Kinds of topology, as in Checkpoint
+    private static final int GRID = 0, TORUS = 1, NETWORK = 2;
+    // Position of the threshold in the header
+    private static final int THRESHOLD = 24;
+
+    private final FileChannel channel;
+    private final ByteBuffer header;
+    private final ByteBuffer[][] planes;
+    private Topology topology;
+    private final int numberOfGroups;
+    private final ChunkedBytes groups;
+    private final ChunkedInts occupiedCounts;
+    private final ChunkedInts[] groupCounts;
+
+    /**
+     * @param planes the buffers of the groups, of the occupied counts and of the counts of every group, in that order
+     */
+    private GridStore(FileChannel channel, ByteBuffer header, Topology topology, ByteBuffer[][] planes) {
+        int size = topology.getSize();
+
+        this.channel = channel;
+        this.header = header;
+        this.planes = planes;
+        this.topology = topology;
+        this.numberOfGroups = planes.length - 2;
+        this.groups = new ChunkedBytes(size, planes[0]);
+        this.occupiedCounts = new ChunkedInts(size, planes[1]);
+        this.groupCounts = new ChunkedInts[this.numberOfGroups];
+        for (int group = 0; group < this.numberOfGroups; group++) {
+            this.groupCounts[group] = new ChunkedInts(size, planes[group + 2]);
+        }
+    }
+
+    /**
+     * Creates an empty store in direct buffers
+     *
+     * @param topology the Topology of the World
+     * @param numberOfGroups the number of groups the World can hold
+     * @return the store
+     * @throws IllegalArgumentException if the number of groups is invalid
+     */
+    public static GridStore allocate(Topology topology, int numberOfGroups) throws IllegalArgumentException {
+        checkGroups(numberOfGroups);
+
+        ByteBuffer[][] planes = new ByteBuffer[numberOfGroups + 2][];
+        for (int p = 0; p < planes.length; p++) {
+            int bytesPerCell = p == 0 ? 1 : 4;
+            planes[p] = new ByteBuffer[segments(topology.getSize())];
+
+            for (int s = 0; s < planes[p].length; s++) {
+                planes[p][s] = ByteBuffer.allocateDirect(segmentBytes(topology.getSize(), s, bytesPerCell))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        GridStore store = new GridStore(null, header, topology, planes);
+        store.writeHeader();
+        store.groups.fill(World.EMPTY);
+        return store;
+    }
+
+    /**
+     * Creates an empty grid file, replacing any existing file, and maps it into memory
+     *
+     * @param path the file to create
+     * @param topology the Topology of the World
+     * @param numberOfGroups the number of groups the World can hold
+     * @return the store
+     * @throws IllegalArgumentException if the number of groups is invalid
+     * @throws IOException if the file cannot be created
+     */
+    public static GridStore create(Path path, Topology topology, int numberOfGroups)
+            throws IllegalArgumentException, IOException {
+        checkGroups(numberOfGroups);
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            GridStore store = new GridStore(channel, header, topology,
+                    map(channel, FileChannel.MapMode.READ_WRITE, topology.getSize(), numberOfGroups));
+            store.writeHeader();
+            store.groups.fill(World.EMPTY);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps an existing grid file into memory for reading and writing. The Topology is the one described by the file
+     *
+     * @param path the file to open
+     * @return the store
+     * @throws IOException if the file cannot be read, is not a valid grid file or holds a network
+     */
+    public static GridStore open(Path path) throws IOException {
+        return open(path, null, true);
+    }
+
+    /**
+     * Maps an existing grid file into memory
+     *
+     * @param path the file to open
+     * @param topology the Topology of the World, or null to use the one described by the file, which is not possible for a
+     *                 network
+     * @param writable false to map the file read-only, in which case the World must not be changed
+     * @return the store
+     * @throws IOException if the file cannot be read, is not a valid grid file or does not match the Topology
+     */
+    public static GridStore open(Path path, Topology topology, boolean writable) throws IOException {
+        FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a grid file");
+            }
+
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            ByteBuffer header = channel.map(mode, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a grid file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported grid file version " + header.getInt(4));
+            }
+
+            int width = header.getInt(8);
+            int height = header.getInt(12);
+            int kind = header.get(16);
+            int shape = header.get(17);
+            int numberOfGroups = header.get(18);
+            int radius = header.getInt(20);
+
+            if (kind < GRID || kind > NETWORK || shape < 0 || shape >= Neighbourhood.Shape.values().length
+                    || numberOfGroups < 1) {
+                throw new IOException("Invalid grid file header");
+            }
+
+            if (topology == null) {
+                if (kind == NETWORK) {
+                    throw new IOException("The grid file holds a network, whose adjacency must be supplied");
+                }
+
+                try {
+                    topology = new Neighbourhood(width, height, radius, Neighbourhood.Shape.values()[shape], kind == TORUS);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage());
+                }
+            } else if (topology.getWidth() != width || topology.getHeight() != height) {
+                throw new IOException("Grid file does not match the dimensions of the topology");
+            }
+
+            if (channel.size() != fileSize(topology.getSize(), numberOfGroups)) {
+                throw new IOException("Grid file has an unexpected size");
+            }
+
+            return new GridStore(channel, header, topology, map(channel, mode, topology.getSize(), numberOfGroups));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the Topology of the World
+     */
+    public Topology getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * @return the number of groups the World can hold
+     */
+    public int getNumberOfGroups() {
+        return this.numberOfGroups;
+    }
+
+    /**
+     * @return true if the store is mapped from a grid file, false if it is held in direct buffers
+     */
+    public boolean isMapped() {
+        return this.channel != null;
+    }
+
+    /**
+     * @return the size of the grid file in bytes, which is also the memory taken by a store in direct buffers
+     */
+    public long getBytes() {
+        return fileSize(this.topology.getSize(), this.numberOfGroups);
+    }
+
+    /**
+     * Writes the changes made so far to the grid file, so they survive a crash of the system. Other processes that map the
+     * file see the changes without this
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void force() throws IOException {
+        if (this.channel != null && !this.header.isReadOnly()) {
+            ((MappedByteBuffer) this.header).force();
+            for (ByteBuffer[] plane : this.planes) {
+                for (ByteBuffer segment : plane) {
+                    ((MappedByteBuffer) segment).force();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the grid file. The mapped buffers stay valid until they are garbage collected, and changes are written to the file
+     * until then
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    ChunkedBytes getGroups() {
+        return this.groups;
+    }
+
+    ChunkedInts getOccupiedCounts() {
+        return this.occupiedCounts;
+    }
+
+    ChunkedInts[] getGroupCounts() {
+        return this.groupCounts.clone();
+    }
+
+    float getUniformThreshold() {
+        return this.header.getFloat(THRESHOLD);
+    }
+
+    void setUniformThreshold(float threshold) {
+        if (!this.header.isReadOnly()) {
+            this.header.putFloat(THRESHOLD, threshold);
+        }
+    }
+
+    /**
+     * Records a new Topology with the same dimensions in the header
+     */
+    void setTopology(Topology topology) {
+        this.topology = topology;
+        if (!this.header.isReadOnly()) {
+            this.writeTopology();
+        }
+    }
+
+    private void writeHeader() {
+        this.header.putInt(0, MAGIC).putInt(4, VERSION);
+        this.header.putInt(8, this.topology.getWidth()).putInt(12, this.topology.getHeight());
+        this.header.put(18, (byte) this.numberOfGroups);
+        this.header.putFloat(THRESHOLD, Float.NaN);
+        this.writeTopology();
+    }
+
+    private void writeTopology() {
+        if (this.topology instanceof Neighbourhood) {
+            Neighbourhood neighbourhood = (Neighbourhood) this.topology;
+            this.header.put(16, (byte) (neighbourhood.isTorus() ? TORUS : GRID));
+            this.header.put(17, (byte) neighbourhood.getShape().ordinal());
+            this.header.putInt(20, neighbourhood.getRadius());
+        } else {
+            this.header.put(16, (byte) NETWORK).put(17, (byte) 0).putInt(20, 0);
+        }
+    }
+
+    /**
+     * Maps the planes of a grid file, in buffers of SEGMENT_SIZE cells, extending the file if it is too short
+     */
+    private static ByteBuffer[][] map(FileChannel channel, FileChannel.MapMode mode, int size, int numberOfGroups)
+            throws IOException {
+        ByteBuffer[][] planes = new ByteBuffer[numberOfGroups + 2][];
+        long position = HEADER_SIZE;
+
+        for (int p = 0; p < planes.length; p++) {
+            int bytesPerCell = p == 0 ? 1 : 4;
+            planes[p] = new ByteBuffer[segments(size)];
+
+            for (int s = 0; s < planes[p].length; s++) {
+                long offset = (long) s * ChunkedInts.SEGMENT_SIZE * bytesPerCell;
+                planes[p][s] = channel.map(mode, position + offset, segmentBytes(size, s, bytesPerCell))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            position += planeBytes(size, bytesPerCell);
+        }
+
+        return planes;
+    }
+
+    private static int segments(int size) {
+        return (int) (((long) size + ChunkedInts.SEGMENT_SIZE - 1) / ChunkedInts.SEGMENT_SIZE);
+    }
+
+    private static int segmentBytes(int size, int segment, int bytesPerCell) {
+        return (int) Math.min(ChunkedInts.SEGMENT_SIZE, size - (long) segment * ChunkedInts.SEGMENT_SIZE) * bytesPerCell;
+    }
+
+    private static void checkGroups(int numberOfGroups) throws IllegalArgumentException {
+        if (numberOfGroups < 1 || numberOfGroups > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of groups");
+        }
+    }
+
+    private static long planeBytes(int size, int bytesPerCell) {
+        return ((long) size * bytesPerCell + 7) & ~7L;
+    }
+
+    private static long fileSize(int size, int numberOfGroups) {
+        return HEADER_SIZE + planeBytes(size, 1) + (1L + numberOfGroups) * planeBytes(size, 4);
+    }
+}
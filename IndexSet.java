@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * A set of cell indices in the range [0, capacity) that supports adding, removing, membership tests and access by position in
+ * O(1). Members are kept in a dense array, so a uniformly random member can be drawn by picking a random position. The array of
+ * members grows with the set, and the positions of the indices can be stored in chunks, so that a small set of indices out of a
+ * large range takes little memory.
+ */
+public class IndexSet {
+    private int[] members;
+    // Position of every index in members, plus one; 0 for indices that are not in the set
+    private final ChunkedInts positions;
+    private int size;
+
+    /**
+     * @param capacity the number of distinct indices the set can hold
+     */
+    public IndexSet(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * @param capacity the number of distinct indices the set can hold
+     * @param chunked true to store the positions of the indices in chunks, false to store them in a single array
+     */
+    public IndexSet(int capacity, boolean chunked) {
+        this.members = new int[Math.min(capacity, 16)];
+        this.positions = new ChunkedInts(capacity, 0, chunked);
+    }
+
+    /**
+     * @return the number of indices in the set
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the set contains no indices
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @param index an index
+     * @return true if the index is in the set
+     */
+    public boolean contains(int index) {
+        return this.positions.get(index) != 0;
+    }
+
+    /**
+     * @param position position within the set, between 0 and size() - 1
+     * @return the index at the position
+     */
+    public int get(int position) {
+        return this.members[position];
+    }
+
+    /**
+     * Adds an index to the set, if it is not already present
+     *
+     * @param index the index to add
+     */
+    public void add(int index) {
+        if (this.positions.get(index) == 0) {
+            if (this.size == this.members.length) {
+                this.members = Arrays.copyOf(this.members, (int) Math.min(this.positions.length(), 2L * this.size));
+            }
+
+            this.members[this.size] = index;
+            this.positions.set(index, ++this.size);
+        }
+    }
+
+    /**
+     * Removes an index from the set, if it is present. The last member takes the place of the removed index
+     *
+     * @param index the index to remove
+     */
+    public void remove(int index) {
+        int position = this.positions.get(index) - 1;
+
+        if (position >= 0) {
+            int last = this.members[--this.size];
+            this.members[position] = last;
+            this.positions.set(last, position + 1);
+            this.positions.set(index, 0);
+        }
+    }
+
+    /**
+     * Removes all indices from the set and releases the memory taken by their positions
+     */
+    public void clear() {
+        if (this.positions.isChunked() && this.size > this.positions.length() / ChunkedInts.CHUNK_SIZE) {
+            this.positions.fill(0);
+        } else {
+            for (int i = 0; i < this.size; i++) {
+                this.positions.set(this.members[i], 0);
+            }
+            this.positions.compact();
+        }
+
+        this.size = 0;
+    }
+}
@@ -0,0 +1,151 @@
+import org.jfree.data.time.Millisecond;
+import org.jfree.data.time.TimeSeries;
+
+import javax.swing.SwingUtilities;
+import java.util.Date;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples a metric of the World of a Chart at a fixed rate on a background thread. The World is read while holding its lock,
+ * which the Controller holds during every step, so a sample never sees a half-finished step. Samples are stored in a ring buffer
+ * that is allocated once, and every batchSize samples the Event Dispatch Thread is asked to move the completed samples into the
+ * TimeSeries of the Chart, which then redraws once per batch instead of once per sample.
+ *
+ * The ring buffer has a single producer, the sampling thread, and a single consumer, the Event Dispatch Thread. If the Event
+ * Dispatch Thread falls behind so far that the buffer is full, new samples are dropped. A sampling thread that was stopped
+ * while it was waiting for the World may still be running after a new one has been started; it only writes its sample while
+ * holding the lock of the sampler, and drops it if it is no longer the current thread, so there is never more than one
+ * producer.
+ */
+public class MetricsSampler {
+    private final Chart chart;
+    private final boolean type;
+    private final long interval;
+    private final int batchSize;
+
+    // Ring buffer of samples. Samples head up to tail have been written but not yet moved to the TimeSeries; tail is only
+    // written by the sampling thread and head only by the Event Dispatch Thread
+    private final long[] times;
+    private final double[] values;
+    private volatile long head, tail;
+
+    private volatile Thread thread;
+
+    /**
+     * @param chart the Chart whose World is sampled and whose TimeSeries receives the samples
+     * @param type true to sample the segregation, false to sample the unhappiness
+     * @param interval time between two samples in milliseconds
+     * @param batchSize the number of samples handed to the TimeSeries at once
+     * @param capacity the number of samples the ring buffer can hold
+     * @throws IllegalArgumentException if a parameter is not positive or the capacity is smaller than the batch size
+     */
+    public MetricsSampler(Chart chart, boolean type, long interval, int batchSize, int capacity)
+            throws IllegalArgumentException {
+        if (interval < 1 || batchSize < 1 || capacity < batchSize) {
+            throw new IllegalArgumentException("Invalid sampling parameters");
+        }
+
+        this.chart = chart;
+        this.type = type;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.times = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Starts sampling, if the sampler is not running already
+     */
+    public synchronized void start() {
+        if (this.thread == null) {
+            this.thread = new Thread(this::sample, "MetricsSampler");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Stops sampling. The samples taken so far are still handed to the TimeSeries
+     */
+    public synchronized void stop() {
+        Thread thread = this.thread;
+        this.thread = null;
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * The loop of the sampling thread
+     */
+    private void sample() {
+        Thread self = Thread.currentThread();
+        long next = System.nanoTime();
+
+        while (this.thread == self) {
+            World world = this.chart.getWorld();
+            double value;
+
+            synchronized (world) {
+                value = this.type ? world.getSegregation() : world.getUnhappiness();
+            }
+
+            synchronized (this) {
+                if (this.thread != self) {
+                    break;
+                }
+
+                this.offer(System.currentTimeMillis(), value);
+            }
+
+            if (this.tail % this.batchSize == 0) {
+                SwingUtilities.invokeLater(this::drain);
+            }
+
+            next += this.interval * 1000000L;
+            long delay;
+            while (this.thread == self && (delay = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, delay);
+            }
+        }
+
+        SwingUtilities.invokeLater(this::drain);
+    }
+
+    /**
+     * Appends a sample to the ring buffer, unless it is full
+     */
+    private void offer(long time, double value) {
+        long tail = this.tail;
+
+        if (tail - this.head < this.times.length) {
+            int slot = (int) (tail % this.times.length);
+            this.times[slot] = time;
+            this.values[slot] = value;
+            this.tail = tail + 1;
+        }
+    }
+
+    /**
+     * Moves the completed samples to the TimeSeries, notifying its listeners once. Runs on the Event Dispatch Thread
+     */
+    private void drain() {
+        long tail = this.tail;
+
+        if (this.head == tail) {
+            return;
+        }
+
+        TimeSeries ts = this.chart.getTs();
+        ts.setNotify(false);
+
+        for (long i = this.head; i < tail; i++) {
+            int slot = (int) (i % this.times.length);
+            ts.addOrUpdate(new Millisecond(new Date(this.times[slot])), this.values[slot]);
+        }
+
+        this.head = tail;
+        ts.setNotify(true);
+    }
+}
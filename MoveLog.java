@@ -0,0 +1,309 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records the changes made to a World in an append-only log, from which a Replay can reconstruct the World at any step. Every
+ * move and every added or removed agent is encoded as a few variable-length integers: the number of steps since the previous
+ * event, the cell relative to the cell of the previous event and, for a move, the destination relative to the origin. Since
+ * agents mostly move to a nearby vacancy, most moves take two to four bytes. Every keyframeInterval steps the complete grid is
+ * written to a separate keyframe file, together with the position in the log at which the events after it start.
+ *
+ * Events are encoded on the simulating thread into blocks, which a background thread writes to disk. The simulation has to tell
+ * the log when a step has been completed by calling endStep.
+ *
+ * The log file consists of a header (magic, version, width, height, neighbourhood radius and shape, kind of topology as in a
+ * Checkpoint, satisfaction threshold, first step) followed by the events. The keyframe file consists of a header (magic,
+ * version, width, height) followed by the keyframes, each holding the step, the position in the log, the step and cell of the
+ * last event before that position, which the next event is encoded relative to, and the group of every cell as a byte. All
+ * numbers in the headers are big-endian.
+ */
+public class MoveLog implements WorldListener, Closeable {
+    /**
+     * First bytes of a log file and of a keyframe file
+     */
+    public static final int MAGIC = 0x5343484d;
+    public static final int KEYFRAME_MAGIC = 0x53434846;
+    public static final int VERSION = 3;
+
+    // Sizes of the headers of both files, and of the fields at the start of a keyframe
+    static final int HEADER_SIZE = 34;
+    static final int KEYFRAME_HEADER_SIZE = 16;
+    static final int KEYFRAME_PREFIX_SIZE = 28;
+
+    // The type of an event is stored in the lowest bit of its first integer, above which the number of steps since the
+    // previous event is stored
+    static final int MOVE = 0;
+    static final int CHANGE = 1;
+
+    // Kinds of topology. A network itself is not logged, so it has to be given to the Replay
+    static final int GRID = 0, TORUS = 1, NETWORK = 2;
+
+    private static final int BLOCK_SIZE = 1 << 16;
+    // The largest encoded event: three variable-length integers of at most ten bytes each
+    private static final int MAX_EVENT_SIZE = 30;
+
+    private final World world;
+    private final int keyframeInterval;
+    private final BlockingQueue<Block> queue = new ArrayBlockingQueue<>(64);
+    private final Thread writer;
+    private volatile IOException error;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int length;
+    // Position in the log file of the next event
+    private long position;
+    // The step the next events belong to, and the state the next event is encoded relative to
+    private long step;
+    private long eventStep;
+    private int previous;
+    private long lastKeyframe;
+
+    /**
+     * Starts logging the changes to a World. The current state of the World is written as the first keyframe
+     *
+     * @param world the World to log
+     * @param file the log file; the keyframes are written to the same file name followed by .keys
+     * @param firstStep the number of steps the simulation has already performed
+     * @param keyframeInterval the number of steps between two keyframes
+     * @throws IllegalArgumentException if the keyframe interval is not positive
+     * @throws IOException if the files cannot be created
+     */
+    public MoveLog(World world, String file, long firstStep, int keyframeInterval) throws IllegalArgumentException,
+            IOException {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Invalid keyframe interval");
+        }
+
+        this.world = world;
+        this.keyframeInterval = keyframeInterval;
+
+        DataOutputStream log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BLOCK_SIZE));
+        DataOutputStream keys = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file + ".keys"),
+                BLOCK_SIZE));
+
+        log.writeInt(MAGIC);
+        log.writeInt(VERSION);
+        log.writeInt(world.getWidth());
+        log.writeInt(world.getHeight());
+        if (world.getTopology() instanceof Neighbourhood) {
+            Neighbourhood neighbourhood = (Neighbourhood) world.getTopology();
+            log.writeInt(neighbourhood.getRadius());
+            log.writeByte(neighbourhood.getShape().ordinal());
+            log.writeByte(neighbourhood.isTorus() ? TORUS : GRID);
+        } else {
+            log.writeInt(0);
+            log.writeByte(0);
+            log.writeByte(NETWORK);
+        }
+        log.writeFloat((float) world.getUniformThreshold());
+        log.writeLong(firstStep);
+        keys.writeInt(KEYFRAME_MAGIC);
+        keys.writeInt(VERSION);
+        keys.writeInt(world.getWidth());
+        keys.writeInt(world.getHeight());
+
+        this.position = HEADER_SIZE;
+        this.step = firstStep + 1;
+        this.eventStep = firstStep;
+        this.writer = new Thread(() -> this.write(log, keys), "MoveLog writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        this.writeKeyframe(firstStep);
+        world.addListener(this);
+    }
+
+    @Override
+    public synchronized void cellChanged(int index) {
+        this.reserve();
+        this.writeVarint(this.header(CHANGE));
+        this.writeVarint(zigzag(index - this.previous));
+        this.writeVarint(this.world.getGroup(index) + 1);
+        this.previous = index;
+    }
+
+    @Override
+    public synchronized void agentMoved(int from, int to) {
+        this.reserve();
+        this.writeVarint(this.header(MOVE));
+        this.writeVarint(zigzag(from - this.previous));
+        this.writeVarint(zigzag(to - from));
+        this.previous = from;
+    }
+
+    /**
+     * Marks the end of a step. The events that follow belong to the next step, and every keyframeInterval steps a keyframe
+     * is written
+     *
+     * @param step the number of the completed step
+     * @throws IOException if writing the log has failed
+     */
+    public synchronized void endStep(long step) throws IOException {
+        this.checkError();
+        this.step = step + 1;
+
+        if (step % this.keyframeInterval == 0) {
+            this.writeKeyframe(step);
+        }
+    }
+
+    /**
+     * Stops logging and writes all remaining events. Unless there already is one, a keyframe is written for the last
+     * completed step, so a Replay knows where the run ended even if the last steps did not change anything
+     *
+     * @throws IOException if writing the log has failed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.world.removeListener(this);
+
+        if (this.step - 1 > this.lastKeyframe) {
+            this.writeKeyframe(this.step - 1);
+        }
+
+        this.flush();
+        this.submit(new Block(null, 0, false));
+
+        try {
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the log");
+        }
+
+        this.checkError();
+    }
+
+    /**
+     * Writes the current grid as a keyframe for a step, together with what is needed to decode the events after it
+     */
+    private void writeKeyframe(long step) {
+        this.flush();
+
+        ByteBuffer keyframe = ByteBuffer.allocate(KEYFRAME_PREFIX_SIZE + this.world.getSize());
+        keyframe.putLong(step).putLong(this.position).putLong(this.eventStep).putInt(this.previous);
+        for (int i = 0; i < this.world.getSize(); i++) {
+            keyframe.put((byte) this.world.getGroup(i));
+        }
+
+        this.submit(new Block(keyframe.array(), keyframe.capacity(), true));
+        this.lastKeyframe = step;
+    }
+
+    /**
+     * @return the first integer of an event of a type, holding the number of steps since the previous event
+     */
+    private long header(int type) {
+        long header = (this.step - this.eventStep) << 1 | type;
+        this.eventStep = this.step;
+
+        return header;
+    }
+
+    private static long zigzag(int value) {
+        return (value << 1 ^ value >> 31) & 0xffffffffL;
+    }
+
+    /**
+     * Makes sure the current block has room for an event, handing it to the writer if it does not
+     */
+    private void reserve() {
+        if (this.length > BLOCK_SIZE - MAX_EVENT_SIZE) {
+            this.flush();
+        }
+    }
+
+    private void writeVarint(long value) {
+        int start = this.length;
+
+        while ((value & ~0x7fL) != 0) {
+            this.block[this.length++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+
+        this.block[this.length++] = (byte) value;
+        this.position += this.length - start;
+    }
+
+    /**
+     * Hands the events encoded so far to the writer
+     */
+    private void flush() {
+        if (this.length > 0) {
+            this.submit(new Block(this.block, this.length, false));
+            this.block = new byte[BLOCK_SIZE];
+            this.length = 0;
+        }
+    }
+
+    private void submit(Block block) {
+        try {
+            this.queue.put(block);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.error = new InterruptedIOException("Interrupted while logging");
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (this.error != null) {
+            throw this.error;
+        }
+    }
+
+    /**
+     * Writes the blocks handed over by the simulation until the log is closed. After an error the remaining blocks are
+     * discarded, so the simulation never waits for a writer that has stopped
+     */
+    private void write(DataOutputStream log, DataOutputStream keys) {
+        try {
+            while (true) {
+                Block block = this.queue.take();
+
+                if (block.data == null) {
+                    break;
+                }
+                if (this.error == null) {
+                    try {
+                        (block.keyframe ? keys : log).write(block.data, 0, block.length);
+                    } catch (IOException e) {
+                        this.error = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            this.error = new InterruptedIOException("Log writer interrupted");
+        }
+
+        try {
+            log.close();
+            keys.close();
+        } catch (IOException e) {
+            if (this.error == null) {
+                this.error = e;
+            }
+        }
+    }
+
+    /**
+     * Bytes to be appended to the log or, for a keyframe, to the keyframe file
+     */
+    private static class Block {
+        final byte[] data;
+        final int length;
+        final boolean keyframe;
+
+        Block(byte[] data, int length, boolean keyframe) {
+            this.data = data;
+            this.length = length;
+            this.keyframe = keyframe;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+import java.util.Arrays;
+
+/**
+ * The Neighbourhood class is the Topology of a rectangular grid, describing which cells are neighbours of each other: either
+ * all cells within a square around a cell (Moore), all cells within a Manhattan distance (von Neumann) or all cells within a
+ * hexagonal distance (hexagonal), up to a given radius. The grid is either bounded, in which case cells near an edge or a
+ * corner have fewer neighbours, or a torus, in which case the neighbourhoods of those cells wrap around to the opposite edge.
+ *
+ * Instead of searching the world, the index offsets of the neighbours are precomputed once per world size. Only the cells
+ * near an edge or a corner differ from the others, so a separate stencil is kept for every kind of border position and all
+ * cells of the same kind share one stencil: a compressed sparse row representation in which the rows of the cells of one kind
+ * are stored only once.
+ *
+ * Looking up the neighbours of a cell does not allocate, so a neighbour query costs O(number of neighbours) regardless of the
+ * size of the world. To count the neighbours of all cells at once, count uses sliding sums instead for squares and diamonds,
+ * so its cost does not depend on the radius.
+ */
+public class Neighbourhood extends Topology {
+    /**
+     * The shapes a neighbourhood can have
+     */
+    public enum Shape {
+        // All cells within the square of side 2 * radius + 1 around a cell
+        MOORE,
+        // All cells within Manhattan distance radius of a cell
+        VON_NEUMANN,
+        // All cells within hexagonal distance radius of a cell, on a grid of hexagons in which every odd row is shifted half
+        // a cell to the right. Radius 1 gives the six cells surrounding a hexagon
+        HEXAGONAL
+    }
+
+    private final int radius;
+    private final Shape shape;
+    private final boolean torus;
+    private final int[] xClass, yClass;
+    private final int xClasses;
+    private final int[][] stencils;
+    private final int maxSize;
+
+    /**
+     * Constructs the radius 1 Moore neighbourhood (the eight surrounding cells) for a world of a given size
+     *
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public Neighbourhood(int width, int height) {
+        this(width, height, 1, Shape.MOORE);
+    }
+
+    /**
+     * Constructs a neighbourhood of any radius and shape for a bounded world of a given size
+     *
+     * @param width width of the world
+     * @param height height of the world
+     * @param radius largest distance of a neighbour
+     * @param shape the shape of the neighbourhood
+     * @throws IllegalArgumentException if the dimensions or the radius are not positive
+     */
+    public Neighbourhood(int width, int height, int radius, Shape shape) throws IllegalArgumentException {
+        this(width, height, radius, shape, false);
+    }
+
+    /**
+     * Constructs a neighbourhood of any radius and shape for a bounded world or a torus of a given size
+     *
+     * @param width width of the world
+     * @param height height of the world
+     * @param radius largest distance of a neighbour
+     * @param shape the shape of the neighbourhood
+     * @param torus true if the edges of the world wrap around
+     * @throws IllegalArgumentException if the dimensions or the radius are not positive, or a torus of hexagons has an odd
+     * height, so the rows would not alternate across the wrapped edge
+     */
+    public Neighbourhood(int width, int height, int radius, Shape shape, boolean torus) throws IllegalArgumentException {
+        super(width, height);
+
+        if (radius < 1) {
+            throw new IllegalArgumentException("Invalid neighbourhood radius");
+        }
+        if (torus && shape == Shape.HEXAGONAL && height % 2 != 0) {
+            throw new IllegalArgumentException("A torus of hexagons needs an even height");
+        }
+
+        this.radius = radius;
+        this.shape = shape;
+        this.torus = torus;
+
+        this.xClass = new int[width];
+        this.yClass = new int[height];
+        int[] xRepresentatives = classify(width, this.radius, false, this.xClass);
+        // The stencils of hexagons differ between even and odd rows
+        int[] yRepresentatives = classify(height, this.radius, shape == Shape.HEXAGONAL, this.yClass);
+        this.xClasses = xRepresentatives.length;
+
+        this.stencils = new int[yRepresentatives.length * this.xClasses][];
+        int max = 0;
+
+        for (int j = 0; j < yRepresentatives.length; j++) {
+            for (int i = 0; i < this.xClasses; i++) {
+                int[] stencil = this.createStencil(xRepresentatives[i], yRepresentatives[j]);
+                this.stencils[j * this.xClasses + i] = stencil;
+                max = Math.max(max, stencil.length);
+            }
+        }
+
+        this.maxSize = max;
+    }
+
+    /**
+     * @return the neighbourhood radius
+     */
+    public int getRadius() {
+        return this.radius;
+    }
+
+    public Shape getShape() {
+        return this.shape;
+    }
+
+    /**
+     * @return true if the edges of the world wrap around, false if the world is bounded
+     */
+    public boolean isTorus() {
+        return this.torus;
+    }
+
+    @Override
+    public boolean isBoundedGrid() {
+        return !this.torus;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Returns the index offsets of the neighbours of a cell: neighbour k of the cell has index index + offsets[k]. The
+     * returned array is shared between cells and must not be modified
+     *
+     * @param index index of the cell
+     * @return array of index offsets, not including the cell itself
+     */
+    @Override
+    public int[] getOffsets(int index) {
+        int x = index % this.width;
+        int y = index / this.width;
+
+        return this.stencils[this.yClass[y] * this.xClasses + this.xClass[x]];
+    }
+
+    /**
+     * @return 0, since every cell has a stencil of its own
+     */
+    @Override
+    public int getStart(int index) {
+        return 0;
+    }
+
+    @Override
+    public int getEnd(int index) {
+        return this.getOffsets(index).length;
+    }
+
+    /**
+     * Counts for every cell how many of its neighbours belong to a group, for all cells at once. For squares and diamonds on a
+     * bounded world this gives the same counts as visiting the neighbours of every cell, but costs O(width * height) whatever
+     * the radius
+     *
+     * @param groups the group of every cell, indexed by y * width + x
+     * @param group the group to count
+     * @param counts array receiving the count of every cell
+     */
+    @Override
+    public void count(ChunkedBytes groups, int group, ChunkedInts counts) {
+        if (this.torus) {
+            super.count(groups, group, counts);
+        } else if (this.shape == Shape.MOORE) {
+            this.countSquares(groups, group, counts);
+        } else if (this.shape == Shape.VON_NEUMANN) {
+            this.countDiamonds(groups, group, counts);
+        } else {
+            super.count(groups, group, counts);
+        }
+    }
+
+    /**
+     * Counts the squares by summing each row over a sliding window, and then summing those row sums over a sliding window of
+     * rows. Only the row sums of the 2 * radius + 1 rows in the window are kept
+     */
+    private void countSquares(ChunkedBytes groups, int group, ChunkedInts counts) {
+        int w = this.width;
+        int r = this.radius;
+        int window = 2 * r + 1;
+        int[] rowSums = new int[window * w];
+        int[] sums = new int[w];
+
+        for (int y = 0; y < this.height + r; y++) {
+            // Add the sliding row sums of row y
+            if (y < this.height) {
+                int row = y * w;
+                int slot = (y % window) * w;
+                int sum = 0;
+
+                for (int x = 0; x < w + r; x++) {
+                    if (x < w && groups.get(row + x) == group) {
+                        sum++;
+                    }
+
+                    int c = x - r;
+                    if (c >= 0) {
+                        rowSums[slot + c] = sum;
+                        sums[c] += sum;
+
+                        if (c - r >= 0 && groups.get(row + c - r) == group) {
+                            sum--;
+                        }
+                    }
+                }
+            }
+
+            // Row c now has the rows c - r to c + r in its window; afterwards row c - r leaves the window
+            int c = y - r;
+            if (c >= 0) {
+                int row = c * w;
+
+                for (int x = 0; x < w; x++) {
+                    counts.set(row + x, sums[x] - (groups.get(row + x) == group ? 1 : 0));
+                }
+
+                if (c - r >= 0) {
+                    int slot = ((c - r) % window) * w;
+
+                    for (int x = 0; x < w; x++) {
+                        sums[x] -= rowSums[slot + x];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the diamonds by sliding a diamond along every row. Moving the diamond one cell to the right removes its left
+     * edge and adds the right edge of the next diamond. Each edge consists of two diagonal segments, which are summed in O(1)
+     * from prefix sums along the diagonals. The prefix sums are taken over the world surrounded by a margin of empty cells,
+     * so diamonds that stick out of the world need no special treatment. Both prefix sums run from the top down, so only the
+     * 2 * radius + 2 rows spanned by the diamonds of one row are kept
+     */
+    private void countDiamonds(ChunkedBytes groups, int group, ChunkedInts counts) {
+        int w = this.width;
+        int r = this.radius;
+        int left = 2 * r + 2;
+        int stride = left + w + r + 2;
+        int rows = 2 * r + 2;
+        // For every cell of the kept rows the sum of the cell and all cells up-left of it on its diagonal, and the sum of the
+        // cell and all cells up-right of it on its other diagonal; rows above the world are zero
+        int[] fromUpLeft = new int[rows * stride];
+        int[] fromUpRight = new int[rows * stride];
+
+        for (int y = 0; y < this.height + r; y++) {
+            int slot = (y % rows) * stride;
+            int previous = ((y + rows - 1) % rows) * stride;
+
+            System.arraycopy(fromUpLeft, previous, fromUpLeft, slot + 1, stride - 1);
+            fromUpLeft[slot] = 0;
+            System.arraycopy(fromUpRight, previous + 1, fromUpRight, slot, stride - 1);
+            fromUpRight[slot + stride - 1] = 0;
+
+            if (y < this.height) {
+                for (int x = 0, i = y * w; x < w; x++, i++) {
+                    if (groups.get(i) == group) {
+                        fromUpLeft[slot + left + x]++;
+                        fromUpRight[slot + left + x]++;
+                    }
+                }
+            }
+
+            // The prefix sums now reach row y + r of the diamonds around row c
+            int c = y - r;
+            if (c < 0) {
+                continue;
+            }
+
+            int centre = (c % rows) * stride + left;
+            int above = ((c + rows - 1) % rows) * stride + left;
+            int top = ((c + rows - r - 1) % rows) * stride + left;
+            int bottom = ((c + r) % rows) * stride + left;
+            int row = c * w;
+            // The diamond around x = -r - 1 lies completely outside the world
+            int sum = 0;
+
+            for (int x = -r; x < w; x++) {
+                // The left edge of the previous diamond runs from (x - 1 - r, c) to (x - 1, c - r) and (x - 1, c + r), the
+                // right edge of this diamond from (x, c - r) and (x, c + r) to (x + r, c)
+                int leftEdge = fromUpRight[centre + x - 1 - r] - fromUpRight[top + x]
+                        + fromUpLeft[bottom + x - 1] - fromUpLeft[above + x - 2 - r]
+                        - this.occupied(groups, group, x - 1 - r, c);
+                int rightEdge = fromUpLeft[centre + x + r] - fromUpLeft[top + x - 1]
+                        + fromUpRight[bottom + x] - fromUpRight[above + x + r + 1]
+                        - this.occupied(groups, group, x + r, c);
+                sum += rightEdge - leftEdge;
+
+                if (x >= 0) {
+                    counts.set(row + x, sum - (groups.get(row + x) == group ? 1 : 0));
+                }
+            }
+        }
+    }
+
+    private int occupied(ChunkedBytes groups, int group, int x, int y) {
+        return x >= 0 && x < this.width && y >= 0 && y < this.height && groups.get(y * this.width + x) == group ? 1 : 0;
+    }
+
+    /**
+     * Builds the offsets for a cell with coordinates x and y, clipped to the borders of the world or wrapped around them
+     */
+    private int[] createStencil(int x, int y) {
+        int[] offsets = new int[(2 * this.radius + 1) * (2 * this.radius + 1) - 1];
+        int n = 0;
+        // On a torus smaller than the neighbourhood, several offsets wrap around to the same cell, or to the cell itself
+        boolean overlaps = this.torus && (this.width <= 2 * this.radius || this.height <= 2 * this.radius);
+
+        for (int dy = -this.radius; dy <= this.radius; dy++) {
+            for (int dx = -this.radius; dx <= this.radius; dx++) {
+                int nx = x + dx;
+                int ny = y + dy;
+
+                if ((dx == 0 && dy == 0) || distance(this.shape, y, dx, dy) > this.radius) {
+                    continue;
+                }
+
+                if (this.torus) {
+                    nx = Math.floorMod(nx, this.width);
+                    ny = Math.floorMod(ny, this.height);
+                } else if (nx < 0 || nx >= this.width || ny < 0 || ny >= this.height) {
+                    continue;
+                }
+
+                int offset = (ny - y) * this.width + nx - x;
+
+                if (overlaps && (offset == 0 || contains(offsets, n, offset))) {
+                    continue;
+                }
+
+                offsets[n++] = offset;
+            }
+        }
+
+        int[] stencil = new int[n];
+        System.arraycopy(offsets, 0, stencil, 0, n);
+
+        return stencil;
+    }
+
+    private static boolean contains(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Measures the distance between a cell and another cell in the way that determines the shape of a neighbourhood
+     *
+     * @param shape the shape of the neighbourhood
+     * @param y the row of the cell, which matters for hexagons only
+     * @param dx horizontal offset of the other cell
+     * @param dy vertical offset of the other cell
+     * @return the distance: a neighbourhood of radius r contains the cells at distance r or less
+     */
+    static int distance(Shape shape, int y, int dx, int dy) {
+        switch (shape) {
+        case MOORE:
+            return Math.max(Math.abs(dx), Math.abs(dy));
+        case VON_NEUMANN:
+            return Math.abs(dx) + Math.abs(dy);
+        default:
+            // Convert both cells to axial coordinates, in which a row no longer shifts the columns
+            int dq = dx - (Math.floorDiv(y + dy, 2) - Math.floorDiv(y, 2));
+            return (Math.abs(dq) + Math.abs(dy) + Math.abs(dq + dy)) / 2;
+        }
+    }
+
+    /**
+     * Assigns every coordinate along one axis to a class, based on its distance to both borders (capped at the radius) and,
+     * if requested, its parity. Coordinates of the same class have identical stencils along this axis
+     *
+     * @param length length of the axis
+     * @param radius neighbourhood radius
+     * @param parity whether even and odd coordinates belong to different classes
+     * @param classes array receiving the class of every coordinate
+     * @return a representative coordinate of every class
+     */
+    private static int[] classify(int length, int radius, boolean parity, int[] classes) {
+        int[] classOfKey = new int[2 * (radius + 1) * (radius + 1)];
+        int[] representatives = new int[classOfKey.length];
+        int n = 0;
+
+        Arrays.fill(classOfKey, -1);
+
+        for (int c = 0; c < length; c++) {
+            int key = Math.min(c, radius) * (radius + 1) + Math.min(length - 1 - c, radius);
+            if (parity) {
+                key += (c & 1) * (radius + 1) * (radius + 1);
+            }
+
+            if (classOfKey[key] < 0) {
+                classOfKey[key] = n;
+                representatives[n++] = c;
+            }
+
+            classes[c] = classOfKey[key];
+        }
+
+        int[] result = new int[n];
+        System.arraycopy(representatives, 0, result, 0, n);
+
+        return result;
+    }
+}
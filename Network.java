@@ -0,0 +1,207 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A Network is a Topology given by an arbitrary undirected graph, such as a social network. The nodes form a single row, so a
+ * World on a Network has width getSize() and height 1. The adjacency is stored in compressed sparse row form in two int arrays:
+ * the neighbours of node i are at positions starts[i] up to starts[i + 1] of one array holding the neighbours of all nodes,
+ * sorted by node. Iterating over the neighbours of a node therefore reads consecutive memory, and a graph takes four bytes per
+ * node and eight bytes per edge.
+ */
+public class Network extends Topology {
+    private final int[] starts;
+    private final int[] offsets;
+    private final int maxSize;
+
+    /**
+     * Constructs a Network from its compressed sparse row arrays
+     *
+     * @param starts for every node the position of its first neighbour, followed by the length of offsets
+     * @param offsets for every node the indices of its neighbours minus the index of the node, in order of the nodes
+     * @throws IllegalArgumentException if the arrays do not describe a graph on starts.length - 1 nodes
+     */
+    Network(int[] starts, int[] offsets) throws IllegalArgumentException {
+        super(Math.max(1, starts.length - 1), 1);
+
+        if (starts.length < 2 || starts[0] != 0 || starts[starts.length - 1] != offsets.length) {
+            throw new IllegalArgumentException("Invalid adjacency");
+        }
+
+        int max = 0;
+        for (int i = 0; i < starts.length - 1; i++) {
+            if (starts[i + 1] < starts[i]) {
+                throw new IllegalArgumentException("Invalid adjacency");
+            }
+
+            for (int k = starts[i]; k < starts[i + 1]; k++) {
+                long neighbour = (long) i + offsets[k];
+
+                if (neighbour < 0 || neighbour >= starts.length - 1 || neighbour == i) {
+                    throw new IllegalArgumentException("Invalid neighbour of node " + i);
+                }
+            }
+
+            max = Math.max(max, starts[i + 1] - starts[i]);
+        }
+
+        this.starts = starts;
+        this.offsets = offsets;
+        this.maxSize = max;
+    }
+
+    /**
+     * Reads an undirected graph from an edge list: a text file with one edge per line, given by two node numbers separated by
+     * whitespace or a comma. Nodes are numbered from 0; the graph has one node more than the highest number in the file. Lines
+     * that are empty or start with # or % are skipped, as are any further fields on a line. Self-loops and duplicate edges are
+     * ignored
+     *
+     * @param path the edge list
+     * @return the graph
+     * @throws IOException if the file cannot be read or contains an invalid line
+     */
+    public static Network read(Path path) throws IOException {
+        int[] edges = new int[1024];
+        int length = 0;
+        int nodes = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            String line;
+            int number = 0;
+
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+
+                if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == '%') {
+                    continue;
+                }
+
+                String[] fields = line.split("[\\s,]+");
+                int a, b;
+                try {
+                    a = Integer.parseInt(fields[0]);
+                    b = fields.length > 1 ? Integer.parseInt(fields[1]) : -1;
+                } catch (NumberFormatException e) {
+                    a = -1;
+                    b = -1;
+                }
+                if (a < 0 || b < 0 || a == Integer.MAX_VALUE || b == Integer.MAX_VALUE) {
+                    throw new IOException("Invalid edge on line " + number + " of " + path);
+                }
+
+                if (length == edges.length) {
+                    if (length > Integer.MAX_VALUE / 2) {
+                        throw new IOException("Too many edges in " + path);
+                    }
+                    edges = Arrays.copyOf(edges, edges.length * 2);
+                }
+                edges[length++] = a;
+                edges[length++] = b;
+                nodes = Math.max(nodes, Math.max(a, b) + 1);
+            }
+        }
+
+        return fromEdges(Math.max(1, nodes), edges, length / 2);
+    }
+
+    /**
+     * Builds a Network from a list of undirected edges
+     *
+     * @param nodes the number of nodes
+     * @param edges the end points of the edges: edge e connects edges[2 * e] and edges[2 * e + 1]
+     * @param count the number of edges
+     * @return the graph, without self-loops and duplicate edges
+     * @throws IllegalArgumentException if an edge connects a node outside the graph, or the graph has too many edges
+     */
+    public static Network fromEdges(int nodes, int[] edges, int count) throws IllegalArgumentException {
+        int[] starts = new int[nodes + 1];
+
+        for (int e = 0; e < 2 * count; e++) {
+            if (edges[e] < 0 || edges[e] >= nodes) {
+                throw new IllegalArgumentException("Edge to a node outside the graph");
+            }
+            if (edges[e] != edges[e ^ 1]) {
+                starts[edges[e] + 1]++;
+            }
+        }
+
+        long total = 0;
+        for (int i = 1; i <= nodes; i++) {
+            total += starts[i];
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many edges");
+            }
+            starts[i] = (int) total;
+        }
+
+        // Place every edge in the rows of both end points, then sort every row and drop duplicates
+        int[] next = Arrays.copyOf(starts, nodes);
+        int[] neighbours = new int[(int) total];
+
+        for (int e = 0; e < 2 * count; e += 2) {
+            int a = edges[e];
+            int b = edges[e + 1];
+
+            if (a != b) {
+                neighbours[next[a]++] = b;
+                neighbours[next[b]++] = a;
+            }
+        }
+
+        int length = 0;
+        for (int i = 0; i < nodes; i++) {
+            int start = starts[i];
+            int end = starts[i + 1];
+            Arrays.sort(neighbours, start, end);
+            starts[i] = length;
+
+            // Rows are compacted in place, so the previous neighbour is remembered before its slot can be overwritten
+            int previous = -1;
+            for (int k = start; k < end; k++) {
+                int neighbour = neighbours[k];
+
+                if (neighbour != previous) {
+                    neighbours[length++] = neighbour - i;
+                    previous = neighbour;
+                }
+            }
+        }
+        starts[nodes] = length;
+
+        return new Network(starts, Arrays.copyOf(neighbours, length));
+    }
+
+    /**
+     * @return the number of undirected edges
+     */
+    public long getEdgeCount() {
+        return this.offsets.length / 2;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @return the array holding the offsets of the neighbours of all nodes
+     */
+    @Override
+    public int[] getOffsets(int index) {
+        return this.offsets;
+    }
+
+    @Override
+    public int getStart(int index) {
+        return this.starts[index];
+    }
+
+    @Override
+    public int getEnd(int index) {
+        return this.starts[index + 1];
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A ParallelSweep lets every unhappy agent of a World try to move once, using several threads. The world is partitioned into
+ * square tiles that are coloured like a 2 x 2 checkerboard. Tiles of the same colour are separated by at least one tile of another
+ * colour, so as long as the tiles are at least twice as large as the neighbourhood radius, the neighbourhoods touched by moves
+ * in two tiles of the same colour never overlap. A sweep processes the four colours one after another, and all tiles of one
+ * colour in parallel on a fork-join pool. During a sweep an agent only moves within its own tile; the tiling is shifted by a
+ * random offset every sweep so that agents can still cross tile borders over time.
+ *
+ * Every tile draws its random numbers from its own StreamRandom, derived from the seed, the sweep number and the position of the
+ * tile. The outcome of a sweep therefore only depends on the seed and not on the number of threads or the order in which they
+ * run.
+ */
+public class ParallelSweep {
+    private final World world;
+    private final long seed;
+    private final int tileSize;
+    private final int threads;
+    // Started by the first sweep, so a ParallelSweep that is only configured costs no threads
+    private ForkJoinPool pool;
+    private long sweepCount;
+
+    /**
+     * @param world the World to sweep
+     * @param seed the seed from which the random streams of all sweeps are derived
+     * @param tileSize width and height of a tile
+     * @param threads the number of threads processing tiles
+     * @throws IllegalArgumentException if the tile size or the number of threads is not positive
+     */
+    public ParallelSweep(World world, long seed, int tileSize, int threads) throws IllegalArgumentException {
+        if (tileSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("Invalid tile size or number of threads");
+        }
+
+        this.world = world;
+        this.seed = seed;
+        this.tileSize = tileSize;
+        this.threads = threads;
+    }
+
+    public int getTileSize() {
+        return this.tileSize;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @return the number of sweeps performed so far
+     */
+    public long getSweepCount() {
+        return this.sweepCount;
+    }
+
+    void setSweepCount(long sweepCount) {
+        this.sweepCount = sweepCount;
+    }
+
+    /**
+     * Performs one sweep
+     *
+     * @param search the search unhappy agents use to find a vacancy within their tile
+     * @return the number of agents that moved
+     * @throws IllegalStateException if the World is not a bounded grid, or the tiles are too small for its neighbourhood
+     * radius
+     */
+    public long sweep(VacancySearch search) throws IllegalStateException {
+        if (!this.world.isBoundedGrid()) {
+            throw new IllegalStateException("Sweeps need a bounded grid");
+        }
+        if (this.tileSize < 2 * ((Neighbourhood) this.world.getTopology()).getRadius()) {
+            throw new IllegalStateException("Tiles are too small for the neighbourhood radius");
+        }
+
+        Random random = StreamRandom.stream(this.seed, this.sweepCount, -1);
+        Tiling tiling = new Tiling(this.world, this.tileSize, random.nextInt(this.tileSize), random.nextInt(this.tileSize));
+        long moves = 0;
+
+        if (this.pool == null) {
+            this.pool = new ForkJoinPool(this.threads);
+        }
+
+        this.world.suspendTracking();
+
+        for (int colour = 0; colour < 4; colour++) {
+            int[] tiles = tiling.getTiles(colour);
+
+            if (tiles.length > 0) {
+                moves += this.pool.invoke(new TileTask(tiling, search, tiles, 0, tiles.length));
+            }
+        }
+
+        this.world.addMoves(moves);
+        this.sweepCount++;
+
+        return moves;
+    }
+
+    /**
+     * Shuts down the threads of the sweeps, if they have been started. A later sweep starts new threads
+     */
+    public void close() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Lets the unhappy agents of one tile move within the tile, in random order
+     *
+     * @return the number of agents that moved
+     */
+    private long sweepTile(Tiling tiling, VacancySearch search, int tile) {
+        int xMin = tiling.getXMin(tile);
+        int yMin = tiling.getYMin(tile);
+        int xMax = tiling.getXMax(tile);
+        int yMax = tiling.getYMax(tile);
+        int width = xMax - xMin + 1;
+        int[] cells = new int[width * (yMax - yMin + 1)];
+        Random random = StreamRandom.stream(this.seed, this.sweepCount, tile);
+        VacancySearch tileSearch = search.withRandom(random);
+        long moves = 0;
+
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = (yMin + i / width) * this.world.getWidth() + xMin + i % width;
+        }
+
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int cell = cells[j];
+            cells[j] = cells[i];
+            cells[i] = cell;
+        }
+
+        for (int cell : cells) {
+            if (!this.world.isEmpty(cell) && !this.world.isSatisfied(cell)) {
+                int destination = tileSearch.find(this.world, cell, this.world.getGroup(cell), this.world.getThreshold(cell),
+                        xMin, yMin, xMax, yMax);
+
+                if (destination >= 0) {
+                    this.world.relocate(cell, destination);
+                    moves++;
+                }
+            }
+        }
+
+        return moves;
+    }
+
+    /**
+     * Processes a range of tiles of one colour, splitting the range until a single tile remains
+     */
+    private class TileTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Tiling tiling;
+        private final VacancySearch search;
+        private final int[] tiles;
+        private final int from, to;
+
+        TileTask(Tiling tiling, VacancySearch search, int[] tiles, int from, int to) {
+            this.tiling = tiling;
+            this.search = search;
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (this.to - this.from == 1) {
+                return sweepTile(this.tiling, this.search, this.tiles[this.from]);
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            TileTask left = new TileTask(this.tiling, this.search, this.tiles, this.from, middle);
+            left.fork();
+            long moves = new TileTask(this.tiling, this.search, this.tiles, middle, this.to).compute();
+
+            return moves + left.join();
+        }
+    }
+
+    /**
+     * A partition of the world into tiles. Tile column tx covers the x-coordinates from offsetX + (tx - 1) * tileSize up to
+     * offsetX + tx * tileSize, clipped to the world, and likewise for rows. Tiles are numbered ty * columns + tx
+     */
+    private static class Tiling {
+        private final int width, height, tileSize, offsetX, offsetY, columns;
+        private final int[][] tilesByColour;
+
+        Tiling(World world, int tileSize, int offsetX, int offsetY) {
+            this.width = world.getWidth();
+            this.height = world.getHeight();
+            this.tileSize = tileSize;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.columns = (this.width - offsetX + tileSize - 1) / tileSize + 1;
+            int rows = (this.height - offsetY + tileSize - 1) / tileSize + 1;
+
+            int[] counts = new int[4];
+            int[][] tiles = new int[4][this.columns * rows];
+
+            for (int ty = 0; ty < rows; ty++) {
+                for (int tx = 0; tx < this.columns; tx++) {
+                    int tile = ty * this.columns + tx;
+
+                    if (this.getXMin(tile) <= this.getXMax(tile) && this.getYMin(tile) <= this.getYMax(tile)) {
+                        int colour = (tx & 1) | (ty & 1) << 1;
+                        tiles[colour][counts[colour]++] = tile;
+                    }
+                }
+            }
+
+            this.tilesByColour = new int[4][];
+            for (int colour = 0; colour < 4; colour++) {
+                this.tilesByColour[colour] = new int[counts[colour]];
+                System.arraycopy(tiles[colour], 0, this.tilesByColour[colour], 0, counts[colour]);
+            }
+        }
+
+        int[] getTiles(int colour) {
+            return this.tilesByColour[colour];
+        }
+
+        int getXMin(int tile) {
+            return Math.max(0, this.offsetX + (tile % this.columns - 1) * this.tileSize);
+        }
+
+        int getXMax(int tile) {
+            return Math.min(this.width - 1, this.offsetX + (tile % this.columns) * this.tileSize - 1);
+        }
+
+        int getYMin(int tile) {
+            return Math.max(0, this.offsetY + (tile / this.columns - 1) * this.tileSize);
+        }
+
+        int getYMax(int tile) {
+            return Math.min(this.height - 1, this.offsetY + (tile / this.columns) * this.tileSize - 1);
+        }
+    }
+}
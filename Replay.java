@@ -0,0 +1,335 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reconstructs the World of a past run from a log written by MoveLog. Seeking to a step loads the last keyframe at or before
+ * the step and applies the events after it, so it costs at most one keyframe interval of events. Seeking forward from the
+ * current step only applies the events in between.
+ *
+ * The replayed World is a single World object that is changed in place, so it can be shown by a WorldPanel and a Chart.
+ * Thresholds per agent are not logged; all agents of the replayed World get the satisfaction threshold the logged World had
+ * when the log was started.
+ */
+public class Replay implements Closeable {
+    private final FileChannel log, keys;
+    private final World world;
+    private final float threshold;
+    private final long firstStep;
+    private final long[] keyframeSteps, keyframePositions, keyframeEventSteps;
+    private final int[] keyframePrevious;
+    private final ByteBuffer keyframe;
+    private final long lastStep;
+
+    private InputStream in;
+    private long step;
+    // The step and cell of the last decoded event, which the next event is encoded relative to
+    private long eventStep;
+    private int previous;
+    // An event that has been decoded but belongs to a later step than the current one
+    private boolean pending;
+    private int pendingType, pendingA, pendingB;
+
+    /**
+     * Opens a log recorded on a grid or a torus and positions the replay at its first step
+     *
+     * @param file the log file, next to which the keyframe file is expected
+     * @throws IOException if the files cannot be read or are not a valid log
+     */
+    public Replay(String file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Opens a log and positions the replay at its first step
+     *
+     * @param file the log file, next to which the keyframe file is expected
+     * @param network the network the log was recorded on, or null if it was recorded on a grid or a torus
+     * @throws IOException if the files cannot be read or are not a valid log, or the network does not match the log
+     */
+    public Replay(String file, Network network) throws IOException {
+        this.log = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        this.keys = FileChannel.open(Paths.get(file + ".keys"), StandardOpenOption.READ);
+
+        ByteBuffer header = this.read(this.log, 0, MoveLog.HEADER_SIZE);
+        ByteBuffer keyHeader = this.read(this.keys, 0, MoveLog.KEYFRAME_HEADER_SIZE);
+
+        if (header.getInt() != MoveLog.MAGIC || keyHeader.getInt() != MoveLog.KEYFRAME_MAGIC) {
+            throw new IOException("Not a move log");
+        }
+        if (header.getInt() != MoveLog.VERSION || keyHeader.getInt() != MoveLog.VERSION) {
+            throw new IOException("Unsupported move log version");
+        }
+
+        int width = header.getInt();
+        int height = header.getInt();
+        if (width != keyHeader.getInt() || height != keyHeader.getInt()) {
+            throw new IOException("Keyframes do not belong to the log");
+        }
+
+        int radius = header.getInt();
+        int shape = header.get();
+        int kind = header.get();
+        if (kind == MoveLog.NETWORK) {
+            if (network == null || network.getWidth() != width || height != 1) {
+                throw new IOException("Move log was recorded on another network");
+            }
+
+            this.world = new World(network);
+        } else {
+            if (kind != MoveLog.GRID && kind != MoveLog.TORUS || radius < 1 || shape < 0
+                    || shape >= Neighbourhood.Shape.values().length) {
+                throw new IOException("Invalid neighbourhood in move log");
+            }
+            if (network != null) {
+                throw new IOException("Move log was not recorded on a network");
+            }
+
+            try {
+                this.world = new World(new Neighbourhood(width, height, radius, Neighbourhood.Shape.values()[shape],
+                        kind == MoveLog.TORUS));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        this.threshold = header.getFloat();
+        this.firstStep = header.getLong();
+        this.keyframe = ByteBuffer.allocate(MoveLog.KEYFRAME_PREFIX_SIZE + this.world.getSize());
+
+        // A keyframe that was only partly written when the run stopped is ignored
+        int keyframes = (int) ((this.keys.size() - MoveLog.KEYFRAME_HEADER_SIZE) / this.keyframe.capacity());
+        if (keyframes == 0) {
+            throw new IOException("Move log contains no keyframes");
+        }
+
+        this.keyframeSteps = new long[keyframes];
+        this.keyframePositions = new long[keyframes];
+        this.keyframeEventSteps = new long[keyframes];
+        this.keyframePrevious = new int[keyframes];
+        for (int k = 0; k < keyframes; k++) {
+            ByteBuffer prefix = this.read(this.keys, this.getKeyframePosition(k), MoveLog.KEYFRAME_PREFIX_SIZE);
+            this.keyframeSteps[k] = prefix.getLong();
+            this.keyframePositions[k] = prefix.getLong();
+            this.keyframeEventSteps[k] = prefix.getLong();
+            this.keyframePrevious[k] = prefix.getInt();
+        }
+
+        // The last step is found by applying all events after the last keyframe
+        this.loadKeyframe(keyframes - 1);
+        this.advance(Long.MAX_VALUE);
+        this.lastStep = Math.max(this.keyframeSteps[keyframes - 1], this.eventStep);
+
+        this.seek(this.firstStep);
+    }
+
+    /**
+     * @return the replayed World, which is changed in place by seek
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * @return the step the World currently shows
+     */
+    public long getStep() {
+        return this.step;
+    }
+
+    public long getFirstStep() {
+        return this.firstStep;
+    }
+
+    public long getLastStep() {
+        return this.lastStep;
+    }
+
+    /**
+     * Changes the World to its state after a step. Like Controller.step, this locks the World while changing it
+     *
+     * @param target the step, which is clamped to the steps in the log
+     * @throws IOException if the log cannot be read
+     */
+    public void seek(long target) throws IOException {
+        target = Math.max(this.firstStep, Math.min(this.lastStep, target));
+        int k = this.findKeyframe(target);
+
+        synchronized (this.world) {
+            if (this.step > target || this.step < this.keyframeSteps[k]) {
+                this.loadKeyframe(k);
+            }
+
+            this.advance(target);
+            this.step = target;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.log.close();
+        this.keys.close();
+    }
+
+    /**
+     * @return the last keyframe at or before a step
+     */
+    private int findKeyframe(long target) {
+        int low = 0;
+        int high = this.keyframeSteps.length - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (this.keyframeSteps[middle] <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private long getKeyframePosition(int k) {
+        return MoveLog.KEYFRAME_HEADER_SIZE + (long) k * this.keyframe.capacity();
+    }
+
+    /**
+     * Makes the World equal to a keyframe, changing only the cells that differ, and continues reading the log after it
+     */
+    private void loadKeyframe(int k) throws IOException {
+        this.keyframe.clear();
+        this.readFully(this.keys, this.getKeyframePosition(k), this.keyframe);
+        this.keyframe.position(MoveLog.KEYFRAME_PREFIX_SIZE);
+
+        for (int i = 0; i < this.world.getSize(); i++) {
+            int group = this.keyframe.get();
+
+            if (group != this.world.getGroup(i)) {
+                this.world.removeAgent(i);
+
+                if (group != World.EMPTY) {
+                    this.world.addAgent(i, group, this.threshold);
+                }
+            }
+        }
+
+        this.log.position(this.keyframePositions[k]);
+        this.in = new BufferedInputStream(Channels.newInputStream(this.log), 1 << 16);
+        this.step = this.keyframeSteps[k];
+        this.eventStep = this.keyframeEventSteps[k];
+        this.previous = this.keyframePrevious[k];
+        this.pending = false;
+    }
+
+    /**
+     * Applies the events up to and including a step, stopping at the end of the log
+     */
+    private void advance(long target) throws IOException {
+        while (this.pending || this.decode()) {
+            if (this.eventStep > target) {
+                this.pending = true;
+                return;
+            }
+
+            this.pending = false;
+
+            if (this.pendingType == MoveLog.MOVE) {
+                this.world.moveAgent(this.pendingA, this.pendingB);
+            } else {
+                this.world.removeAgent(this.pendingA);
+
+                if (this.pendingB != World.EMPTY) {
+                    this.world.addAgent(this.pendingA, this.pendingB, this.threshold);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the next event of the log
+     *
+     * @return false at the end of the log, or if the last event was only partly written
+     */
+    private boolean decode() throws IOException {
+        long header = this.readVarint();
+        long a = this.readVarint();
+        long b = this.readVarint();
+
+        if (header < 0 || a < 0 || b < 0) {
+            return false;
+        }
+
+        this.eventStep += header >>> 1;
+        this.pendingType = (int) (header & 1);
+        this.pendingA = this.previous + unzigzag(a);
+
+        if (this.pendingType == MoveLog.MOVE) {
+            this.pendingB = this.pendingA + unzigzag(b);
+        } else {
+            this.pendingB = (int) b - 1;
+        }
+
+        if (this.pendingA < 0 || this.pendingA >= this.world.getSize() || this.pendingB < World.EMPTY
+                || this.pendingB >= this.world.getSize()) {
+            throw new IOException("Invalid event in move log");
+        }
+
+        this.previous = this.pendingA;
+        return true;
+    }
+
+    private static int unzigzag(long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+    /**
+     * @return the next variable-length integer of the log, or -1 at the end of the log
+     */
+    private long readVarint() throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = this.in.read();
+
+            if (b < 0) {
+                return -1;
+            }
+
+            value |= (long) (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Invalid variable-length integer in move log");
+    }
+
+    private ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        this.readFully(channel, position, buffer);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+
+            if (read < 0) {
+                throw new IOException("Unexpected end of move log");
+            }
+
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import org.jfree.chart.ChartPanel;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import javax.swing.*;
+
+/**
+ * Window that replays a run recorded with a MoveLog. A slider selects the step that is shown, and playing advances the replay
+ * by a number of steps per frame while the charts follow the metrics of the replayed world.
+ *
+ * Usage: java ReplayWindow logfile [networkfile]
+ *
+ * A run on a network can only be replayed together with the edge list of the network.
+ */
+public class ReplayWindow extends JFrame {
+	private static final long serialVersionUID = 1L;
+
+	// Time between two frames while playing, in milliseconds
+	private static final int FRAME_TIME = 40;
+
+	private final Replay replay;
+
+	private WorldPanel worldPanel;
+	private Chart chart, happyChart;
+
+	// Interface Components
+	private JSlider slider;
+	private JLabel stepLabel;
+	private JButton play;
+	private JSpinner speed;
+	private Timer timer;
+
+	/**
+	 * Creates a window showing a replay
+	 * @param replay the replay to show
+	 */
+	public ReplayWindow(Replay replay) {
+		super();
+		setTitle("Schelling Segregation Replay");
+		setSize(1300,750);
+		setResizable(false);
+		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		setLocationRelativeTo(null);
+		this.replay = replay;
+		init();
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1 && args.length != 2) {
+			System.err.println("Usage: java ReplayWindow logfile [networkfile]");
+			System.exit(1);
+		}
+
+		try {
+			Network network = args.length == 2 ? Network.read(Paths.get(args[1])) : null;
+			ReplayWindow window = new ReplayWindow(new Replay(args[0], network));
+			window.setVisible(true);
+		} catch (IOException e) {
+			System.err.println("ReplayWindow: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Initializes GUI elements
+	 */
+	private void init() {
+		setLayout(new BorderLayout());
+		JPanel mainPanel = new JPanel(new GridLayout(1, 2));
+		JPanel rightPanel = new JPanel(new GridLayout(2, 0));
+
+		worldPanel = new WorldPanel(replay.getWorld());
+		mainPanel.add(worldPanel);
+
+		chart = new Chart(replay.getWorld(), "Segregation", "Segregation coefficient", true);
+		rightPanel.add(new ChartPanel(chart.getChart()));
+
+		happyChart = new Chart(replay.getWorld(), "Unhappiness", "% Unhappy", false);
+		rightPanel.add(new ChartPanel(happyChart.getChart()));
+
+		mainPanel.add(rightPanel);
+		add(mainPanel, BorderLayout.CENTER);
+
+		JPanel control = new JPanel();
+
+		// The slider works with ints, so very long runs are only shown up to the largest int
+		int first = (int) Math.min(Integer.MAX_VALUE, replay.getFirstStep());
+		int last = (int) Math.min(Integer.MAX_VALUE, replay.getLastStep());
+		slider = new JSlider(first, last, first);
+		slider.setPreferredSize(new Dimension(500, slider.getPreferredSize().height));
+		slider.addChangeListener(e -> seek(slider.getValue()));
+		control.add(slider);
+
+		stepLabel = new JLabel();
+		control.add(stepLabel);
+
+		play = new JButton("Play");
+		play.addActionListener(e -> togglePlay());
+		control.add(play);
+
+		control.add(new JLabel("Steps per frame:"));
+		speed = new JSpinner(new SpinnerNumberModel(100, 1, 1000000, 100));
+		control.add(speed);
+
+		timer = new Timer(FRAME_TIME, e -> {
+			int next = (int) Math.min(slider.getMaximum(), (long) slider.getValue() + ((Number) speed.getValue()).intValue());
+			slider.setValue(next);
+
+			if (next == slider.getMaximum()) {
+				togglePlay();
+			}
+		});
+
+		add(control, BorderLayout.SOUTH);
+		seek(first);
+	}
+
+	/**
+	 * Shows the world after a step
+	 * @param step the step to show
+	 */
+	private void seek(long step) {
+		try {
+			replay.seek(step);
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Replay", JOptionPane.ERROR_MESSAGE);
+		}
+
+		// The WorldPanel repaints the cells changed by the replay by itself
+		stepLabel.setText("Step " + replay.getStep() + " / " + replay.getLastStep());
+	}
+
+	/**
+	 * Starts or stops playing the replay, together with the charts
+	 */
+	private void togglePlay() {
+		if (timer.isRunning()) {
+			timer.stop();
+			play.setText("Play");
+			chart.pause();
+			happyChart.pause();
+		} else {
+			timer.start();
+			play.setText("Pause");
+			chart.go();
+			happyChart.go();
+		}
+	}
+}
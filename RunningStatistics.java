@@ -0,0 +1,142 @@
+/**
+ * Statistics of a stream of values between 0 and 1, such as the segregation or unhappiness of many runs, kept in constant
+ * memory. The mean and variance are updated with Welford's algorithm, and quantiles are estimated from a histogram with fixed
+ * bins of equal width, so every quantile is accurate to within one bin. Two RunningStatistics with the same number of bins can be
+ * merged, which gives the same result as adding all values to one of them. NaN values are ignored.
+ */
+public class RunningStatistics {
+    /**
+     * The default number of bins of the histogram from which quantiles are estimated
+     */
+    public static final int BINS = 1000;
+
+    private long count;
+    private double mean, m2;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    private final long[] histogram;
+
+    public RunningStatistics() {
+        this(BINS);
+    }
+
+    /**
+     * @param bins the number of bins of the histogram, which makes quantiles accurate to within 1 / bins
+     */
+    public RunningStatistics(int bins) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("Invalid number of bins");
+        }
+
+        this.histogram = new long[bins];
+    }
+
+    /**
+     * Adds a value
+     *
+     * @param value a value between 0 and 1; values outside that range are counted in the first or last bin of the histogram
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        this.count++;
+        double delta = value - this.mean;
+        this.mean += delta / this.count;
+        this.m2 += delta * (value - this.mean);
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+        this.histogram[this.bin(value)]++;
+    }
+
+    /**
+     * Adds all values added to another RunningStatistics
+     *
+     * @param other the statistics to merge into this one, with the same number of bins
+     */
+    public void merge(RunningStatistics other) {
+        if (other.histogram.length != this.histogram.length) {
+            throw new IllegalArgumentException("Different numbers of bins");
+        }
+        if (other.count == 0) {
+            return;
+        }
+
+        long count = this.count + other.count;
+        double delta = other.mean - this.mean;
+        this.mean += delta * other.count / count;
+        this.m2 += other.m2 + delta * delta * ((double) this.count * other.count / count);
+        this.count = count;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+
+        for (int i = 0; i < this.histogram.length; i++) {
+            this.histogram[i] += other.histogram[i];
+        }
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the mean of the values, or NaN if there are none
+     */
+    public double getMean() {
+        return this.count == 0 ? Double.NaN : this.mean;
+    }
+
+    /**
+     * @return the sample variance of the values, or NaN if there are fewer than two
+     */
+    public double getVariance() {
+        return this.count < 2 ? Double.NaN : this.m2 / (this.count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(this.getVariance());
+    }
+
+    /**
+     * @return the smallest value, or NaN if there are none
+     */
+    public double getMin() {
+        return this.count == 0 ? Double.NaN : this.min;
+    }
+
+    /**
+     * @return the largest value, or NaN if there are none
+     */
+    public double getMax() {
+        return this.count == 0 ? Double.NaN : this.max;
+    }
+
+    /**
+     * Estimates a quantile as the middle of the histogram bin that contains it
+     *
+     * @param q the quantile, between 0 and 1
+     * @return the estimated quantile, or NaN if there are no values
+     */
+    public double getQuantile(double q) {
+        if (this.count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) Math.floor(q * (this.count - 1));
+        long seen = 0;
+        int bin = 0;
+
+        while (seen + this.histogram[bin] <= rank) {
+            seen += this.histogram[bin];
+            bin++;
+        }
+
+        double estimate = (bin + 0.5) / this.histogram.length;
+        return Math.max(this.min, Math.min(this.max, estimate));
+    }
+
+    private int bin(double value) {
+        int bins = this.histogram.length;
+        return Math.max(0, Math.min(bins - 1, (int) (value * bins)));
+    }
+}
@@ -0,0 +1,407 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * A worker of a sharded simulation (see ShardedRunner). The world is cut into horizontal strips of rows, and every worker owns
+ * one strip. Besides its own rows a worker keeps a halo of 2 * radius rows of each neighbouring strip, so the counters of its
+ * own cells and of the first radius rows of its neighbours are exact.
+ *
+ * The simulation proceeds in rounds that work like the sweeps of a ParallelSweep. A round has two phases: in the first the
+ * workers with an even index are active and in the second those with an odd index. An active worker lets every unhappy agent
+ * in its rows try to move once, in random order, to the nearest satisfying vacancy in its own rows or in the first radius rows
+ * of a neighbour, and then sends all cells it changed within the halo of a neighbour to that neighbour. The idle workers apply
+ * these changes to their copy of the world, which takes the agents that moved across the border into their strip. Since the
+ * neighbours of an active worker are idle, and strips are at least 3 * radius + 1 rows high, the moves of two active workers
+ * never touch the same counters, and the outcome of a run only depends on the seed and the number of workers.
+ *
+ * Every interval rounds a worker reports the number of agents in its rows, how many of them are unhappy, the sum of their
+ * same-group fractions and the number of moves to the coordinator, which combines the reports of all workers.
+ */
+public class ShardWorker {
+    /**
+     * First bytes a worker sends to the coordinator and to the worker above it
+     */
+    public static final int MAGIC = 0x53484152;
+
+    private final SimulationConfig config;
+    private final int shard, shards;
+    private final int width, radius;
+    // Global rows of the strip [first, last) and of the part of the world this worker keeps a copy of [top, bottom)
+    private final int first, last, top, bottom;
+    private final World world;
+    // Local cells changed by this worker since its changes were last sent
+    private final IndexSet changed;
+    private long moves;
+
+    /**
+     * @param config the configuration of the run, which must describe a bounded grid
+     * @param shard index of the strip of this worker, counted from the top
+     * @param shards the number of strips
+     * @throws IllegalArgumentException if the world is not a bounded grid, or the strips are too low for the radius
+     */
+    public ShardWorker(SimulationConfig config, int shard, int shards) throws IllegalArgumentException {
+        int height = config.getHeight();
+        check(config, shards);
+
+        this.config = config;
+        this.shard = shard;
+        this.shards = shards;
+        this.width = config.getWidth();
+        this.radius = config.getRadius();
+        this.first = firstRow(height, shard, shards);
+        this.last = firstRow(height, shard + 1, shards);
+        this.top = top(height, shard, shards, this.radius);
+        this.bottom = bottom(height, shard, shards, this.radius);
+        this.world = config.createWorld(new Neighbourhood(this.width, this.bottom - this.top, this.radius, config.getShape()));
+        this.changed = new IndexSet(this.world.getSize());
+    }
+
+    /**
+     * @return the World holding the rows of this worker and its halo; its row 0 is row getTop() of the whole world
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * @return the row of the whole world that is row 0 of getWorld()
+     */
+    public int getTop() {
+        return this.top;
+    }
+
+    /**
+     * @return the first row of the strip of this worker
+     */
+    public int getFirstRow() {
+        return this.first;
+    }
+
+    /**
+     * @return the row after the last row of the strip of this worker
+     */
+    public int getLastRow() {
+        return this.last;
+    }
+
+    /**
+     * Joins a sharded run: connects to the coordinator, receives the configuration and the index of the strip, connects to the
+     * workers of the neighbouring strips and performs the run
+     *
+     * @param host host of the coordinator
+     * @param port port of the coordinator
+     * @return the worker, holding the final state of its strip
+     * @throws IOException if a connection fails
+     */
+    public static ShardWorker join(String host, int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(0); Link coordinator = new Link(new Socket(host, port))) {
+            coordinator.out.writeInt(MAGIC);
+            coordinator.out.writeInt(server.getLocalPort());
+            coordinator.out.flush();
+
+            int shard = coordinator.in.readInt();
+            int shards = coordinator.in.readInt();
+            byte[] properties = new byte[coordinator.in.readInt()];
+            coordinator.in.readFully(properties);
+            String aboveHost = coordinator.in.readUTF();
+            int abovePort = coordinator.in.readInt();
+
+            Properties loaded = new Properties();
+            loaded.load(new ByteArrayInputStream(properties));
+            ShardWorker worker = new ShardWorker(new SimulationConfig(loaded), shard, shards);
+
+            try (Link above = shard == 0 ? null : new Link(new Socket(aboveHost, abovePort));
+                    Link below = shard == shards - 1 ? null : new Link(server.accept())) {
+                if (above != null) {
+                    above.out.writeInt(MAGIC);
+                    above.out.flush();
+                }
+                if (below != null && below.in.readInt() != MAGIC) {
+                    throw new IOException("Unexpected connection from the worker below");
+                }
+
+                worker.run(coordinator.out, above, below);
+            }
+
+            return worker;
+        }
+    }
+
+    /**
+     * Populates the strip and performs the rounds of the run, reporting to the coordinator every interval rounds
+     */
+    private void run(DataOutputStream coordinator, Link above, Link below) throws IOException {
+        long rounds = this.config.getSteps();
+        long interval = this.config.getInterval();
+
+        this.populate();
+        for (int phase = 0; phase < 2; phase++) {
+            this.exchange(phase, above, below);
+        }
+        this.report(coordinator, 0);
+
+        for (long round = 1; round <= rounds; round++) {
+            for (int phase = 0; phase < 2; phase++) {
+                if ((this.shard & 1) == phase) {
+                    this.sweep(round);
+                }
+                this.exchange(phase, above, below);
+            }
+
+            if (round % interval == 0 || round == rounds) {
+                this.report(coordinator, round);
+            }
+        }
+    }
+
+    /**
+     * Places density times the number of cells of the strip agents in the strip at random, and marks them as changed so they
+     * are sent to the neighbours
+     */
+    private void populate() {
+        int[] free = new int[(this.last - this.first) * this.width];
+        int offset = (this.first - this.top) * this.width;
+        int agents = (int) Math.round(this.config.getDensity() * free.length);
+        int groups = this.config.getNumberOfGroups();
+        Random random = StreamRandom.stream(this.config.getSeed(), -1, this.shard);
+
+        for (int i = 0; i < free.length; i++) {
+            free[i] = offset + i;
+        }
+
+        for (int i = 0; i < agents; i++) {
+            int j = i + random.nextInt(free.length - i);
+            int index = free[j];
+            free[j] = free[i];
+            free[i] = index;
+
+            int group = groups - 1;
+            for (int g = 0; g < groups - 1; g++) {
+                if (random.nextDouble() < (double) (g + 1) / groups) {
+                    group = g;
+                    break;
+                }
+            }
+
+            this.world.addAgent(index, group, this.config.getThreshold());
+            this.changed.add(index);
+        }
+    }
+
+    /**
+     * Lets every unhappy agent in the strip try to move once, in random order, within the strip and the first radius rows of
+     * the neighbouring strips
+     */
+    private void sweep(long round) {
+        Random random = StreamRandom.stream(this.config.getSeed(), round, this.shard);
+        VacancySearch search = new VacancySearch(this.config.getMetric(), this.config.getSearchRadius(), random);
+        int yMin = Math.max(this.top, this.first - this.radius) - this.top;
+        int yMax = Math.min(this.bottom, this.last + this.radius) - 1 - this.top;
+        int offset = (this.first - this.top) * this.width;
+        int[] cells = new int[(this.last - this.first) * this.width];
+
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = offset + i;
+        }
+
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int cell = cells[j];
+            cells[j] = cells[i];
+            cells[i] = cell;
+        }
+
+        for (int cell : cells) {
+            if (!this.world.isEmpty(cell) && !this.world.isSatisfied(cell)) {
+                int destination = search.find(this.world, cell, this.world.getGroup(cell), this.world.getThreshold(cell), 0,
+                        yMin, this.width - 1, yMax);
+
+                if (destination >= 0) {
+                    this.world.moveAgent(cell, destination);
+                    this.changed.add(cell);
+                    this.changed.add(destination);
+                    this.moves++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs one phase of the exchange: the workers whose index has the parity of the phase send the cells they changed to
+     * their neighbours, the others receive and apply them
+     */
+    private void exchange(int phase, Link above, Link below) throws IOException {
+        int height = this.config.getHeight();
+
+        if ((this.shard & 1) == phase) {
+            if (above != null) {
+                this.send(above.out, top(height, this.shard - 1, this.shards, this.radius),
+                        bottom(height, this.shard - 1, this.shards, this.radius));
+            }
+            if (below != null) {
+                this.send(below.out, top(height, this.shard + 1, this.shards, this.radius),
+                        bottom(height, this.shard + 1, this.shards, this.radius));
+            }
+            this.changed.clear();
+        } else {
+            if (above != null) {
+                this.receive(above.in);
+            }
+            if (below != null) {
+                this.receive(below.in);
+            }
+        }
+    }
+
+    /**
+     * Sends the changed cells within the rows [from, to) of the whole world: the number of cells, and for every cell its index
+     * in the whole world, its group and, if it is occupied, the threshold of its agent
+     */
+    private void send(DataOutputStream out, int from, int to) throws IOException {
+        int[] cells = new int[this.changed.size()];
+        int n = 0;
+
+        for (int i = 0; i < this.changed.size(); i++) {
+            int cell = this.changed.get(i);
+            int y = this.top + cell / this.width;
+
+            if (y >= from && y < to) {
+                cells[n++] = cell;
+            }
+        }
+
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            int cell = cells[i];
+            out.writeInt(this.top * this.width + cell);
+            out.writeByte(this.world.getGroup(cell));
+            if (!this.world.isEmpty(cell)) {
+                out.writeFloat(this.world.getThreshold(cell));
+            }
+        }
+        out.flush();
+    }
+
+    private void receive(DataInputStream in) throws IOException {
+        int n = in.readInt();
+
+        for (int i = 0; i < n; i++) {
+            int cell = in.readInt() - this.top * this.width;
+            int group = in.readByte();
+
+            if (cell < 0 || cell >= this.world.getSize()) {
+                throw new IOException("Received a cell outside the halo");
+            }
+
+            this.world.removeAgent(cell);
+            if (group != World.EMPTY) {
+                this.world.addAgent(cell, group, in.readFloat());
+            }
+        }
+    }
+
+    /**
+     * Sends the state of the strip to the coordinator: the round, the number of agents, the number of unhappy agents, the sum
+     * of their same-group fractions and the number of moves made so far
+     */
+    private void report(DataOutputStream coordinator, long round) throws IOException {
+        int agents = 0;
+        int unhappy = 0;
+        double fractions = 0;
+
+        for (int cell = (this.first - this.top) * this.width; cell < (this.last - this.top) * this.width; cell++) {
+            if (!this.world.isEmpty(cell)) {
+                agents++;
+                fractions += this.world.getPercentage(cell, this.world.getGroup(cell), false);
+                if (!this.world.isSatisfied(cell)) {
+                    unhappy++;
+                }
+            }
+        }
+
+        coordinator.writeLong(round);
+        coordinator.writeInt(agents);
+        coordinator.writeInt(unhappy);
+        coordinator.writeDouble(fractions);
+        coordinator.writeLong(this.moves);
+        coordinator.flush();
+    }
+
+    /**
+     * Checks whether a world can be split into a number of strips
+     *
+     * @param config the configuration of the run
+     * @param shards the number of strips
+     * @throws IllegalArgumentException if the world is not a bounded grid, or the strips are too low for the radius
+     */
+    static void check(SimulationConfig config, int shards) throws IllegalArgumentException {
+        if (!config.getString("topology", "grid").equals("grid")) {
+            throw new IllegalArgumentException("Sharded runs need a bounded grid");
+        }
+        if (shards < 1 || config.getHeight() / shards < 3 * config.getRadius() + 1) {
+            throw new IllegalArgumentException("Strips need at least 3 * radius + 1 rows");
+        }
+    }
+
+    /**
+     * @return the first row of a strip
+     */
+    static int firstRow(int height, int shard, int shards) {
+        return (int) ((long) height * shard / shards);
+    }
+
+    /**
+     * @return the first row a worker keeps a copy of, which is even so that rows of hexagons keep their parity
+     */
+    private static int top(int height, int shard, int shards, int radius) {
+        return Math.max(0, firstRow(height, shard, shards) - 2 * radius) & ~1;
+    }
+
+    /**
+     * @return the row after the last row a worker keeps a copy of
+     */
+    private static int bottom(int height, int shard, int shards, int radius) {
+        return Math.min(height, firstRow(height, shard + 1, shards) + 2 * radius);
+    }
+
+    public static void main(String[] args) {
+        try {
+            SimulationConfig config = new SimulationConfig(args);
+            String[] coordinator = config.getString("coordinator", "127.0.0.1:" + ShardedRunner.DEFAULT_PORT).split(":");
+            join(coordinator[0], Integer.parseInt(coordinator[1]));
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("ShardWorker: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A buffered connection to another process
+     */
+    static class Link implements Closeable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.socket.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a simulation that is split over several worker processes, each of which owns a strip of rows of the world (see
+ * ShardWorker). The runner is the coordinator of the run: it waits for the workers to connect, tells every worker its strip, the
+ * configuration and where to reach the worker above it, and combines the metrics the workers report every interval rounds into
+ * the segregation and unhappiness of the whole world, which are written like those of a BatchRunner. A round lets every
+ * unhappy agent try to move once, like a sweep, so steps and interval count rounds.
+ *
+ * By default the runner starts the workers itself as local processes with the same class path, connected over loopback TCP.
+ * With --spawn=false it only waits for workers started elsewhere with java ShardWorker --coordinator=host:port, for instance
+ * on other machines, each of which then only needs memory for its own strip. The workers keep their strips on the heap, in
+ * chunks or outside the heap like a BatchRunner (--chunked, --offHeap).
+ *
+ * Usage: java ShardedRunner [--shards=2] [--port=5125] [--spawn=true] [--workerOptions=-Xmx1g] followed by the options of a
+ * BatchRunner run on a bounded grid: [--width=50] [--height=50] [--density=0.76] [--groups=2] [--threshold=0.35]
+ * [--radius=1] [--shape=MOORE|VON_NEUMANN|HEXAGONAL] [--seed=1234] [--steps=100000] [--interval=1000] [--metric=CHEBYSHEV]
+ * [--searchRadius=0] [--output=-] [--format=csv|binary] [--chunked=false] [--offHeap=false]
+ */
+public class ShardedRunner {
+    /**
+     * Port the coordinator listens on unless --port is given
+     */
+    public static final int DEFAULT_PORT = 5125;
+
+    private final SimulationConfig config;
+
+    public ShardedRunner(SimulationConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) {
+        try {
+            new ShardedRunner(new SimulationConfig(args)).run();
+        } catch (IllegalArgumentException | IOException | InterruptedException e) {
+            System.err.println("ShardedRunner: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Performs the run described by the configuration
+     *
+     * @throws IOException if a worker cannot be started or reached, or the results cannot be written
+     * @throws InterruptedException if interrupted while waiting for the workers to exit
+     */
+    public void run() throws IOException, InterruptedException {
+        int shards = this.config.getInt("shards", 2);
+        boolean spawn = Boolean.parseBoolean(this.config.getString("spawn", "true"));
+        long rounds = this.config.getSteps();
+
+        ShardWorker.check(this.config, shards);
+
+        List<Process> processes = new ArrayList<>();
+        List<ShardWorker.Link> workers = new ArrayList<>();
+        long start = System.nanoTime();
+
+        try (ServerSocket server = new ServerSocket(this.config.getInt("port", DEFAULT_PORT))) {
+            System.err.println("waiting for " + shards + " workers on port " + server.getLocalPort());
+
+            if (spawn) {
+                for (int shard = 0; shard < shards; shard++) {
+                    processes.add(this.startWorker(server.getLocalPort()));
+                }
+            }
+
+            int[] ports = new int[shards];
+            for (int shard = 0; shard < shards; shard++) {
+                ShardWorker.Link worker = new ShardWorker.Link(server.accept());
+                workers.add(worker);
+
+                if (worker.in.readInt() != ShardWorker.MAGIC) {
+                    throw new IOException("Unexpected connection from " + worker.socket.getInetAddress());
+                }
+                ports[shard] = worker.in.readInt();
+            }
+
+            ByteArrayOutputStream properties = new ByteArrayOutputStream();
+            this.config.getProperties().store(properties, null);
+
+            for (int shard = 0; shard < shards; shard++) {
+                ShardWorker.Link worker = workers.get(shard);
+                worker.out.writeInt(shard);
+                worker.out.writeInt(shards);
+                worker.out.writeInt(properties.size());
+                properties.writeTo(worker.out);
+                worker.out.writeUTF(shard == 0 ? "" : workers.get(shard - 1).socket.getInetAddress().getHostAddress());
+                worker.out.writeInt(shard == 0 ? 0 : ports[shard - 1]);
+                worker.out.flush();
+            }
+
+            long initialised = System.nanoTime();
+            long moves = 0;
+
+            try (BatchRunner.ResultWriter writer = BatchRunner.createWriter(this.config)) {
+                long round;
+                do {
+                    long agents = 0;
+                    long unhappy = 0;
+                    double fractions = 0;
+                    round = -1;
+                    moves = 0;
+
+                    for (ShardWorker.Link worker : workers) {
+                        long reported = worker.in.readLong();
+                        if (round >= 0 && reported != round) {
+                            throw new IOException("Workers are out of step");
+                        }
+
+                        round = reported;
+                        agents += worker.in.readInt();
+                        unhappy += worker.in.readInt();
+                        fractions += worker.in.readDouble();
+                        moves += worker.in.readLong();
+                    }
+
+                    writer.write(round, fractions / agents, (double) unhappy / agents);
+                } while (round < rounds);
+            }
+
+            double seconds = (System.nanoTime() - initialised) / 1e9;
+            System.err.printf("initialisation: %.3f s%n", (initialised - start) / 1e9);
+            System.err.printf("rounds: %d, moves: %d, time: %.3f s%n", rounds, moves, seconds);
+            System.err.printf("throughput: %.0f rounds/s, %.0f moves/s%n", rounds / seconds, moves / seconds);
+        } finally {
+            for (ShardWorker.Link worker : workers) {
+                worker.close();
+            }
+            for (Process process : processes) {
+                process.waitFor();
+            }
+        }
+    }
+
+    /**
+     * Starts a worker in a new local Java process with the class path of this one
+     */
+    private Process startWorker(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String option : this.config.getString("workerOptions", "").split("\\s+")) {
+            if (!option.isEmpty()) {
+                command.add(option);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("ShardWorker");
+        command.add("--coordinator=127.0.0.1:" + port);
+
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+}
@@ -0,0 +1,301 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Parameters of a simulation run that is not controlled through the user interface. The parameters are read from a properties
+ * file and/or from command line arguments of the form --key=value, where the command line takes precedence over the file.
+ */
+public class SimulationConfig {
+    private final Properties properties;
+
+    /**
+     * Constructs a configuration from command line arguments. If the arguments contain --config=file, the properties in that
+     * file are read first
+     *
+     * @param args the command line arguments
+     * @throws IllegalArgumentException if an argument is not of the form --key=value
+     * @throws IOException if the configuration file cannot be read
+     */
+    public SimulationConfig(String[] args) throws IllegalArgumentException, IOException {
+        Properties arguments = new Properties();
+
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+
+            arguments.setProperty(arg.substring(2, split), arg.substring(split + 1));
+        }
+
+        this.properties = new Properties();
+
+        if (arguments.getProperty("config") != null) {
+            try (InputStream in = new FileInputStream(arguments.getProperty("config"))) {
+                this.properties.load(in);
+            }
+        }
+
+        this.properties.putAll(arguments);
+    }
+
+    /**
+     * Constructs a configuration from a set of properties
+     *
+     * @param properties the properties
+     */
+    public SimulationConfig(Properties properties) {
+        this.properties = new Properties();
+        this.properties.putAll(properties);
+    }
+
+    /**
+     * @return the properties this configuration consists of
+     */
+    public Properties getProperties() {
+        Properties copy = new Properties();
+        copy.putAll(this.properties);
+
+        return copy;
+    }
+
+    public int getWidth() {
+        return this.getInt("width", 50);
+    }
+
+    public int getHeight() {
+        return this.getInt("height", this.getWidth());
+    }
+
+    /**
+     * @return the fraction of cells that contain an agent at the start of the run
+     */
+    public double getDensity() {
+        return this.getDouble("density", 0.76);
+    }
+
+    /**
+     * @param topology the Topology of the World
+     * @return the number of agents placed at the start of the run
+     */
+    public int getNumberOfAgents(Topology topology) {
+        return (int) Math.round(this.getDensity() * topology.getSize());
+    }
+
+    public int getNumberOfGroups() {
+        return this.getInt("groups", 2);
+    }
+
+    public double getThreshold() {
+        return this.getDouble("threshold", 0.35);
+    }
+
+    public long getSeed() {
+        return this.getLong("seed", 1234);
+    }
+
+    /**
+     * @return the number of steps (or sweeps) to simulate
+     */
+    public long getSteps() {
+        return this.getLong("steps", 100000);
+    }
+
+    /**
+     * @return the number of steps (or sweeps) between two recorded samples of the metrics
+     */
+    public long getInterval() {
+        return Math.max(1, this.getLong("interval", 1000));
+    }
+
+    public Controller.Scheduler getScheduler() {
+        return Controller.Scheduler.valueOf(this.getString("scheduler", Controller.Scheduler.UNHAPPY_WORKLIST.name()));
+    }
+
+    public VacancySearch.Metric getMetric() {
+        return VacancySearch.Metric.valueOf(this.getString("metric", VacancySearch.Metric.CHEBYSHEV.name()));
+    }
+
+    /**
+     * @return largest distance an agent looks for a vacancy, or 0 to search the whole world
+     */
+    public int getSearchRadius() {
+        return this.getInt("searchRadius", 0);
+    }
+
+    /**
+     * @return the neighbourhood radius
+     */
+    public int getRadius() {
+        return this.getInt("radius", 1);
+    }
+
+    public Neighbourhood.Shape getShape() {
+        return Neighbourhood.Shape.valueOf(this.getString("shape", Neighbourhood.Shape.MOORE.name()));
+    }
+
+    /**
+     * Creates the Topology of the World: a bounded grid (--topology=grid), a grid whose edges wrap around (--topology=torus),
+     * both with the configured width, height, radius and shape, or a network read from an edge list (--topology=network
+     * --network=file, see Network.read), whose size is given by the file
+     *
+     * @return the Topology
+     * @throws IllegalArgumentException if the topology is unknown or no network file is given
+     * @throws IOException if the network cannot be read
+     */
+    public Topology createTopology() throws IllegalArgumentException, IOException {
+        switch (this.getString("topology", "grid")) {
+        case "grid":
+            return new Neighbourhood(this.getWidth(), this.getHeight(), this.getRadius(), this.getShape(), false);
+        case "torus":
+            return new Neighbourhood(this.getWidth(), this.getHeight(), this.getRadius(), this.getShape(), true);
+        case "network":
+            String file = this.getString("network", "");
+            if (file.isEmpty()) {
+                throw new IllegalArgumentException("A network topology needs --network=file");
+            }
+            return Network.read(Paths.get(file));
+        default:
+            throw new IllegalArgumentException("Unknown topology: " + this.getString("topology", "grid"));
+        }
+    }
+
+    /**
+     * @return the number of steps (or sweeps) between two checkpoints
+     */
+    public long getCheckpointInterval() {
+        return Math.max(1, this.getLong("checkpointInterval", this.getInterval()));
+    }
+
+    /**
+     * @return true if the run consists of parallel sweeps rather than single steps (--mode=sweep)
+     */
+    public boolean isSweepMode() {
+        return this.getString("mode", "step").equals("sweep");
+    }
+
+    /**
+     * @return true if the World stores its cells in chunks that are shared while uniform (--chunked=true), which saves memory
+     * on large sparse or segregated worlds at the price of speed
+     */
+    public boolean isChunked() {
+        return Boolean.parseBoolean(this.getString("chunked", "false"));
+    }
+
+    /**
+     * @return true if the World keeps its cells outside the heap, in direct buffers (--offHeap=true), see GridStore
+     */
+    public boolean isOffHeap() {
+        return Boolean.parseBoolean(this.getString("offHeap", "false"));
+    }
+
+    /**
+     * @return true if a run ends as soon as the simulation has converged (--stopOnConvergence=true), see
+     * Controller.isConverged
+     */
+    public boolean isStopOnConvergence() {
+        return Boolean.parseBoolean(this.getString("stopOnConvergence", "false"));
+    }
+
+    /**
+     * @return the number of threads used by parallel sweeps
+     */
+    public int getThreads() {
+        return this.getInt("threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return width and height of the tiles used by parallel sweeps
+     */
+    public int getTileSize() {
+        return this.getInt("tileSize", 64);
+    }
+
+    /**
+     * Creates a World and a Controller according to this configuration and populates the World. With --gridFile=file the
+     * cells of the World are kept in a grid file that is mapped into memory, see GridStore
+     *
+     * @return the Controller of the new simulation
+     * @throws IllegalArgumentException if the topology is invalid
+     * @throws IOException if the network cannot be read or the grid file cannot be created
+     */
+    public Controller createController() throws IllegalArgumentException, IOException {
+        Topology topology = this.createTopology();
+        String gridFile = this.getString("gridFile", "");
+
+        if (gridFile.isEmpty()) {
+            return this.createController(topology);
+        }
+
+        return this.createController(new World(GridStore.create(Paths.get(gridFile), topology, this.getNumberOfGroups())));
+    }
+
+    /**
+     * Creates a World on a given Topology and a Controller according to this configuration and populates the World. Since a
+     * Topology is never modified, several Worlds can share one
+     *
+     * @param topology the Topology of the World
+     * @return the Controller of the new simulation
+     */
+    public Controller createController(Topology topology) {
+        return this.createController(this.createWorld(topology));
+    }
+
+    /**
+     * Creates an empty World on a given Topology that keeps its cells on the heap, in chunks or outside the heap according to
+     * this configuration
+     *
+     * @param topology the Topology of the World
+     * @return the World
+     */
+    public World createWorld(Topology topology) {
+        if (this.isOffHeap()) {
+            return new World(GridStore.allocate(topology, this.getNumberOfGroups()));
+        }
+
+        return new World(topology, this.isChunked());
+    }
+
+    /**
+     * Creates a Controller for an empty World according to this configuration and populates the World
+     *
+     * @param world the World
+     * @return the Controller of the new simulation
+     */
+    public Controller createController(World world) {
+        Controller controller = new Controller(world, this.getSeed(), this.getThreshold(), this.getNumberOfGroups(),
+                this.getNumberOfAgents(world.getTopology()));
+
+        controller.setScheduler(this.getScheduler());
+        controller.setVacancySearch(this.getMetric(), this.getSearchRadius());
+        controller.setParallelSweep(this.getThreads(), this.getTileSize());
+        controller.createRandomNeighbourhood();
+
+        return controller;
+    }
+
+    /**
+     * @param key name of the property
+     * @param defaultValue value returned if the property is not set
+     * @return the value of the property
+     */
+    public String getString(String key, String defaultValue) {
+        return this.properties.getProperty(key, defaultValue).trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return Integer.parseInt(this.getString(key, Integer.toString(defaultValue)));
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return Long.parseLong(this.getString(key, Long.toString(defaultValue)));
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        return Double.parseDouble(this.getString(key, Double.toString(defaultValue)));
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.Random;
+
+/**
+ * A Random whose internal state can be read and restored, so that a simulation can be saved and resumed without changing the
+ * sequence of random numbers it draws. The generator is the same 48-bit linear congruential generator as java.util.Random, so
+ * for a given seed it produces exactly the same numbers. The state of nextGaussian is not part of the saved state.
+ */
+public class SimulationRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    /**
+     * @param seed the initial seed
+     */
+    public SimulationRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        this.state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        this.state = (this.state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (this.state >>> (48 - bits));
+    }
+
+    /**
+     * @return the internal state of the generator
+     */
+    public long getState() {
+        return this.state;
+    }
+
+    /**
+     * Restores a state previously obtained from getState
+     *
+     * @param state the internal state of the generator
+     */
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+}
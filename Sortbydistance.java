@@ -11,12 +11,6 @@ public class Sortbydistance implements Comparator<Cell> {
 
     @Override
     public int compare(Cell o1, Cell o2) {
-        if (o1.getDistanceTo(this.cell) < o2.getDistanceTo(this.cell)) {
-            return 1;
-        } else if (o1.getDistanceTo(this.cell) > o2.getDistanceTo(this.cell)) {
-            return -1;
-        }
-
-        return 0;
+        return Integer.compare(o1.getDistanceTo(this.cell), o2.getDistanceTo(this.cell));
     }
 }
@@ -0,0 +1,108 @@
+import java.util.Random;
+
+/**
+ * A Random for the independent random streams of parallel, sharded and repeated runs. Every tile of a sweep, worker of a sharded
+ * run or run of an ensemble draws from its own stream, which is derived from the master seed of the simulation and the
+ * coordinates of the stream (such as the sweep number and the tile) by stream or streamSeed, or split off another stream by
+ * split. The numbers a stream produces therefore only depend on the master seed and its coordinates, and not on which thread
+ * uses it or when.
+ *
+ * The generator is SplitMix64, the generator of java.util.SplittableRandom with its default increment: the state advances by a
+ * fixed odd constant and every output is a strong mix of the state. Unlike java.util.Random it uses no atomic operations or
+ * locks, so a StreamRandom must only be used by one thread at a time; threads that need random numbers get streams of their
+ * own instead of sharing one. All streams are positions on the same cycle of 2^64 states, starting at positions that are
+ * effectively random, so two streams of n numbers overlap with a probability of about n^2 / 2^64.
+ */
+public class StreamRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    /**
+     * @param seed the initial state of the generator
+     */
+    public StreamRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * @param seed the master seed
+     * @param a first coordinate of the stream
+     * @param b second coordinate of the stream
+     * @return a new generator for the stream with the given coordinates
+     */
+    public static StreamRandom stream(long seed, long a, long b) {
+        return new StreamRandom(streamSeed(seed, a, b));
+    }
+
+    /**
+     * Derives the seed of an independent random stream from a master seed and a stream number
+     *
+     * @param seed the master seed
+     * @param a number of the stream
+     * @return the seed of the stream
+     */
+    public static long streamSeed(long seed, long a) {
+        return mix((mix(seed + GOLDEN_GAMMA) ^ a) + GOLDEN_GAMMA);
+    }
+
+    /**
+     * Derives the seed of an independent random stream from a master seed and two stream coordinates
+     *
+     * @param seed the master seed
+     * @param a first coordinate of the stream
+     * @param b second coordinate of the stream
+     * @return the seed of the stream
+     */
+    public static long streamSeed(long seed, long a, long b) {
+        return mix((streamSeed(seed, a) ^ b) + GOLDEN_GAMMA);
+    }
+
+    /**
+     * Splits off a new stream, which is seeded by the next number of this one
+     *
+     * @return the new stream
+     */
+    public StreamRandom split() {
+        return new StreamRandom(this.nextLong());
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        this.state = seed;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (this.nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (this.nextLong() >>> 32);
+    }
+
+    @Override
+    public long nextLong() {
+        this.state += GOLDEN_GAMMA;
+        return mix(this.state);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (this.nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * The finalizer of the SplitMix64 generator, which spreads small differences in its input over all bits
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+}
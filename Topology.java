@@ -0,0 +1,120 @@
+/**
+ * A Topology describes which nodes of a World are neighbours of each other. The nodes are numbered 0 to getSize() - 1 and laid
+ * out in getHeight() rows of getWidth() nodes, so a grid topology uses the index y * width + x of a cell, while a network is a
+ * single row of nodes.
+ *
+ * The neighbours of every node are stored in compressed sparse row form: the neighbours of node index are index + offsets[k]
+ * for k from getStart(index) up to getEnd(index), where offsets is the array returned by getOffsets(index). A topology can
+ * store all rows in one array, or let nodes share a row when their neighbours lie at the same offsets, as the cells of a grid
+ * away from its borders do. Looking up the neighbours of a node never allocates.
+ *
+ * The relation must be symmetric: if a is a neighbour of b, b is a neighbour of a. A node is never its own neighbour.
+ */
+public abstract class Topology {
+    protected final int width, height;
+
+    /**
+     * @param width the number of nodes in a row
+     * @param height the number of rows
+     * @throws IllegalArgumentException if the dimensions are not positive or there would be too many nodes
+     */
+    protected Topology(int width, int height) throws IllegalArgumentException {
+        if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid dimensions");
+        }
+
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getSize() {
+        return this.width * this.height;
+    }
+
+    /**
+     * @return true if the nodes are the cells of a bounded rectangular grid, whose neighbours lie within a fixed radius and do
+     * not wrap around its edges. Only such a topology can be searched by rings of the metric or partitioned into tiles
+     */
+    public boolean isBoundedGrid() {
+        return false;
+    }
+
+    /**
+     * @return the largest number of neighbours any node has
+     */
+    public abstract int getMaxSize();
+
+    /**
+     * Returns the array holding the offsets of the neighbours of a node, between getStart(index) and getEnd(index). The
+     * returned array is shared between nodes and must not be modified
+     *
+     * @param index index of the node
+     * @return array of index offsets
+     */
+    public abstract int[] getOffsets(int index);
+
+    /**
+     * @param index index of the node
+     * @return the position in getOffsets(index) of the offset of its first neighbour
+     */
+    public abstract int getStart(int index);
+
+    /**
+     * @param index index of the node
+     * @return one more than the position in getOffsets(index) of the offset of its last neighbour
+     */
+    public abstract int getEnd(int index);
+
+    /**
+     * Writes the indices of the neighbours of a node into a buffer
+     *
+     * @param index index of the node
+     * @param buffer array of at least getMaxSize() elements
+     * @return the number of neighbours written to the buffer
+     */
+    public int getNeighbours(int index, int[] buffer) {
+        int[] offsets = this.getOffsets(index);
+        int start = this.getStart(index);
+        int n = this.getEnd(index) - start;
+
+        for (int k = 0; k < n; k++) {
+            buffer[k] = index + offsets[start + k];
+        }
+
+        return n;
+    }
+
+    /**
+     * Counts for every node how many of its neighbours belong to a group. Every node of the group adds one to the count of
+     * each of its neighbours, which costs O(number of edges); stretches of empty nodes are skipped a chunk at a time
+     *
+     * @param groups the group of every node
+     * @param group the group to count
+     * @param counts array receiving the count of every node
+     */
+    public void count(ChunkedBytes groups, int group, ChunkedInts counts) {
+        counts.fill(0);
+
+        for (int i = groups.next(0, World.EMPTY); i < groups.length(); i = groups.next(i + 1, World.EMPTY)) {
+            if (groups.get(i) == group) {
+                int[] offsets = this.getOffsets(i);
+                int end = this.getEnd(i);
+
+                for (int k = this.getStart(i); k < end; k++) {
+                    counts.add(i + offsets[k], 1);
+                }
+            }
+        }
+    }
+}
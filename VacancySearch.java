@@ -0,0 +1,322 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A VacancySearch finds the nearest empty cell in which an unhappy agent would be satisfied. The search walks outward from the
+ * agent in rings of increasing distance and stops at the first ring that contains a satisfying vacancy, so the cost of a move is
+ * proportional to the distance travelled instead of to the size of the world. A vacancy is judged by its neighbourhood as it
+ * will be after the move: if the agent's current cell is a neighbour of the vacancy, the agent does not count as its own
+ * neighbour there.
+ *
+ * On a bounded grid the rings are formed by the metric. On any other Topology, such as a torus or a network, the metric is
+ * ignored and the rings are formed by the number of hops between neighbours, found by a breadth-first search. That search keeps
+ * its visited marks and queue between calls to avoid allocating per move, so a VacancySearch must not be used by several
+ * threads at once on such a Topology.
+ */
+public class VacancySearch {
+    /**
+     * Distance measures by which the rings around an agent are formed
+     */
+    public enum Metric {
+        CHEBYSHEV, MANHATTAN
+    }
+
+    private final Metric metric;
+    private final int maxRadius;
+    private final Random random;
+
+    // Scratch space of the breadth-first search: a cell has been visited by the current search if its mark equals generation
+    private int[] marks;
+    private int generation;
+    private int[] queue;
+
+    /**
+     * Constructs an unbounded Chebyshev search that returns the first satisfying vacancy it finds
+     */
+    public VacancySearch() {
+        this(Metric.CHEBYSHEV, 0, null);
+    }
+
+    /**
+     * @param metric distance measure used to form the rings
+     * @param maxRadius largest distance (or number of hops) searched, or 0 to search the whole world
+     * @param random if not null, ties between satisfying vacancies at the same distance are broken at random using this
+     *               Random; otherwise the first one found is used
+     */
+    public VacancySearch(Metric metric, int maxRadius, Random random) {
+        this.metric = metric;
+        this.maxRadius = maxRadius;
+        this.random = random;
+    }
+
+    /**
+     * @return the distance measure used to form the rings
+     */
+    public Metric getMetric() {
+        return this.metric;
+    }
+
+    /**
+     * @return largest distance searched, or 0 if the search is unbounded
+     */
+    public int getMaxRadius() {
+        return this.maxRadius;
+    }
+
+    /**
+     * @param random Random used to break ties, or null to use the first satisfying vacancy found
+     * @return a search with the same metric and maximum radius as this one, using another Random
+     */
+    public VacancySearch withRandom(Random random) {
+        return new VacancySearch(this.metric, this.maxRadius, random);
+    }
+
+    /**
+     * Searches the nearest empty Cell in which an agent of a group with a given threshold is satisfied
+     *
+     * @param world the World to search
+     * @param index index of the Cell the search starts from
+     * @param group group of the agent
+     * @param threshold satisfaction threshold of the agent
+     * @return index of a satisfying empty Cell, or -1 if there is none within the maximum radius
+     */
+    public int find(World world, int index, int group, double threshold) {
+        if (!world.isBoundedGrid()) {
+            return this.findByHops(world, index, group, threshold);
+        }
+
+        return this.find(world, index, group, threshold, 0, 0, world.getWidth() - 1, world.getHeight() - 1);
+    }
+
+    /**
+     * Searches the nearest empty Cell within a rectangle in which an agent of a group with a given threshold is satisfied. The
+     * World must be a bounded grid
+     *
+     * @param world the World to search
+     * @param index index of the Cell the search starts from, which must lie within the rectangle
+     * @param group group of the agent
+     * @param threshold satisfaction threshold of the agent
+     * @param xMin smallest x-coordinate of the rectangle
+     * @param yMin smallest y-coordinate of the rectangle
+     * @param xMax largest x-coordinate of the rectangle
+     * @param yMax largest y-coordinate of the rectangle
+     * @return index of a satisfying empty Cell, or -1 if there is none within the maximum radius
+     */
+    public int find(World world, int index, int group, double threshold, int xMin, int yMin, int xMax, int yMax) {
+        Area area = new Area(world, index, group, threshold, xMin, yMin, xMax, yMax);
+        int x = world.getX(index);
+        int y = world.getY(index);
+
+        // Largest distance at which a cell of the rectangle can still be found
+        int dx = Math.max(x - xMin, xMax - x);
+        int dy = Math.max(y - yMin, yMax - y);
+        int limit = this.metric == Metric.CHEBYSHEV ? Math.max(dx, dy) : dx + dy;
+
+        if (this.maxRadius > 0) {
+            limit = Math.min(limit, this.maxRadius);
+        }
+
+        for (int d = 1; d <= limit; d++) {
+            int found = this.metric == Metric.CHEBYSHEV ? this.searchSquare(area, x, y, d) : this.searchDiamond(area, x, y, d);
+
+            if (found >= 0) {
+                return found;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Searches the nearest empty Cell by breadth-first search over the Topology of the World, one layer of hops at a time
+     */
+    private int findByHops(World world, int index, int group, double threshold) {
+        Topology topology = world.getTopology();
+        int size = world.getSize();
+
+        if (this.marks == null || this.marks.length != size) {
+            this.marks = new int[size];
+            this.queue = new int[Math.min(size, 1024)];
+            this.generation = 0;
+        }
+        if (++this.generation == 0) {
+            Arrays.fill(this.marks, 0);
+            this.generation = 1;
+        }
+
+        Area area = new Area(world, index, group, threshold, 0, 0, world.getWidth() - 1, world.getHeight() - 1);
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = index;
+        this.marks[index] = this.generation;
+
+        for (int d = 1; head < tail && (this.maxRadius == 0 || d <= this.maxRadius); d++) {
+            int layerEnd = tail;
+            area.reset();
+
+            while (head < layerEnd) {
+                int node = this.queue[head++];
+                int[] offsets = topology.getOffsets(node);
+                int end = topology.getEnd(node);
+
+                for (int k = topology.getStart(node); k < end; k++) {
+                    int neighbour = node + offsets[k];
+
+                    if (this.marks[neighbour] != this.generation) {
+                        this.marks[neighbour] = this.generation;
+
+                        if (tail == this.queue.length) {
+                            this.queue = Arrays.copyOf(this.queue, Math.min(size, 2 * tail));
+                        }
+                        this.queue[tail++] = neighbour;
+
+                        if (this.offer(area, neighbour)) {
+                            return neighbour;
+                        }
+                    }
+                }
+            }
+
+            if (area.candidate >= 0) {
+                return area.candidate;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Searches the cells at Chebyshev distance d, which form the border of a square
+     */
+    private int searchSquare(Area area, int x, int y, int d) {
+        int width = area.world.getWidth();
+        int xMin = Math.max(area.xMin, x - d);
+        int xMax = Math.min(area.xMax, x + d);
+        int yMin = Math.max(area.yMin, y - d + 1);
+        int yMax = Math.min(area.yMax, y + d - 1);
+        area.reset();
+
+        for (int i = xMin; i <= xMax; i++) {
+            if (y - d >= area.yMin && this.offer(area, (y - d) * width + i)) {
+                return area.candidate;
+            }
+            if (y + d <= area.yMax && this.offer(area, (y + d) * width + i)) {
+                return area.candidate;
+            }
+        }
+
+        for (int j = yMin; j <= yMax; j++) {
+            if (x - d >= area.xMin && this.offer(area, j * width + x - d)) {
+                return area.candidate;
+            }
+            if (x + d <= area.xMax && this.offer(area, j * width + x + d)) {
+                return area.candidate;
+            }
+        }
+
+        return area.candidate;
+    }
+
+    /**
+     * Searches the cells at Manhattan distance d, which form the border of a diamond
+     */
+    private int searchDiamond(Area area, int x, int y, int d) {
+        int width = area.world.getWidth();
+        area.reset();
+
+        for (int i = Math.max(area.xMin, x - d); i <= Math.min(area.xMax, x + d); i++) {
+            int rest = d - Math.abs(i - x);
+
+            if (y - rest >= area.yMin && this.offer(area, (y - rest) * width + i)) {
+                return area.candidate;
+            }
+            if (rest > 0 && y + rest <= area.yMax && this.offer(area, (y + rest) * width + i)) {
+                return area.candidate;
+            }
+        }
+
+        return area.candidate;
+    }
+
+    /**
+     * Considers a cell as destination
+     *
+     * @return true if the search can stop immediately at this cell
+     */
+    private boolean offer(Area area, int index) {
+        World world = area.world;
+
+        if (!world.isEmpty(index) || !World.isSatisfied(area.getPercentageAfterMove(index), area.threshold)) {
+            return false;
+        }
+
+        if (this.random == null) {
+            area.candidate = index;
+            return true;
+        }
+
+        // Reservoir sampling keeps a uniformly chosen candidate among all candidates seen on this ring
+        area.count++;
+        if (this.random.nextInt(area.count) == 0) {
+            area.candidate = index;
+        }
+
+        return false;
+    }
+
+    /**
+     * The rectangle being searched for a particular agent, and the satisfying vacancies found on the current ring
+     */
+    private static class Area {
+        final World world;
+        // The cell the agent moves from, and the offsets of its neighbours
+        final int origin;
+        final int[] offsets;
+        final int start, end;
+        final int group;
+        final double threshold;
+        final int xMin, yMin, xMax, yMax;
+        int candidate;
+        int count;
+
+        Area(World world, int origin, int group, double threshold, int xMin, int yMin, int xMax, int yMax) {
+            Topology topology = world.getTopology();
+
+            this.world = world;
+            this.origin = origin;
+            this.offsets = topology.getOffsets(origin);
+            this.start = topology.getStart(origin);
+            this.end = topology.getEnd(origin);
+            this.group = group;
+            this.threshold = threshold;
+            this.xMin = xMin;
+            this.yMin = yMin;
+            this.xMax = xMax;
+            this.yMax = yMax;
+        }
+
+        void reset() {
+            this.candidate = -1;
+            this.count = 0;
+        }
+
+        /**
+         * @return the fraction of same-group neighbours an empty cell would give the agent once it has moved there. The agent
+         * still counts towards the neighbours of the cell if its origin is one of them, so it is left out of both counts
+         */
+        double getPercentageAfterMove(int index) {
+            int n = this.world.getOccupiedCount(index);
+            int g = this.world.getGroupCount(index, this.group);
+
+            for (int k = this.start; k < this.end; k++) {
+                if (this.origin + this.offsets[k] == index) {
+                    n--;
+                    g--;
+                    break;
+                }
+            }
+
+            return n == 0 ? 0 : (double) g / n;
+        }
+    }
+}
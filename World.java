@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -6,28 +7,145 @@ import java.util.List;
  * The class keeps track of all the Cells and all the Agents the world contains and can be used to find a specific cell in the world
  * with known coordinates
  *
+ * The state of the world is stored in primitive arrays indexed by y * width + x, so looking up a cell is O(1) and the world
+ * does not hold an object per cell. Cell and Agent objects handed out by the world are thin views on these arrays. The arrays
+ * can be split into chunks of consecutive cells (see ChunkedBytes and ChunkedInts), in which case a chunk in which all cells
+ * have the same value, such as an empty region or the inside of a cluster of one group, shares its storage with all other
+ * such chunks. A large world that is sparse or strongly segregated then takes far less memory than its number of cells
+ * suggests, at the price of slower access to every cell, so worlds are only chunked on request. Alternatively the arrays can
+ * be kept outside the heap by a GridStore, in direct buffers or mapped from a grid file.
+ * Besides the arrays per cell, the world can keep its agents in an AgentStore, which holds the cell, group and threshold of
+ * every agent in arrays per agent, so that all agents can be visited without going over the empty cells or creating Agent
+ * objects. The store is built when it is first needed and maintained from then on, so a world whose agents are only visited
+ * cell by cell does not pay for it.
+ * For every cell the world also keeps the number of occupied neighbours and the number of neighbours of each group. These
+ * counters are updated for the affected neighbours whenever an agent is added, removed or moved, so reading the neighbourhood
+ * fraction of a cell is O(1). In the same way the world keeps track of the set of unhappy agents and of the sum of the
+ * same-group fractions of all agents, so the segregation and unhappiness of the world can be read in O(1) as well.
+ *
  * @author Max Hedeman Joosten
  */
 
 public class World {
+    /**
+     * Group value of a cell that does not contain an agent
+     */
+    public static final byte EMPTY = -1;
+
     private final int width, height;
-    private final ArrayList<Cell> cellList;
+    private final int size;
+    private final ChunkedBytes groups;
+    private Topology topology;
+
+    // Number of occupied neighbours of every cell, and per group the number of neighbours belonging to that group.
+    // The plane of a group is allocated when the first agent of that group is added
+    private final ChunkedInts occupiedCounts;
+    private ChunkedInts[] groupCounts;
+    // The store outside the heap holding the arrays above, or null if they are on the heap
+    private final GridStore store;
+
+    // Cells containing an agent that is not satisfied with its neighbourhood. While tracking is suspended the set is
+    // not maintained; it is rebuilt the next time it is needed
+    private final IndexSet unhappyCells;
+    private boolean tracking = true;
+
+    // Sum of the same-group fractions of all agents, in units of 1 / FRACTION_SCALE. Every fraction is rounded the same way
+    // when it is added and when it is subtracted again, so the sum does not drift however many moves are made
+    private static final double FRACTION_SCALE = 1L << 32;
+    private long fractionSum;
+
+    // The cells, groups and thresholds of all agents, or null if the store has not been needed yet. It is always present once
+    // the agents have different thresholds; as long as all agents share the same threshold uniformThreshold is used instead
+    private AgentStore agents;
+    private boolean heterogeneous;
+    private float uniformThreshold;
+    private int agentCount;
+    private long moveCount;
+
+    private WorldListener[] listeners = new WorldListener[0];
+
+    /**
+     * Constructs a new World with dimensions w and h, in which the neighbours of a cell are the eight surrounding cells
+     *
+     * @param w width of the World
+     * @param h height of the World
+     * @throws IllegalArgumentException if the dimensions are not positive or the World would be too large
+     */
+    public World(int w, int h) throws IllegalArgumentException {
+        this(w, h, 1, Neighbourhood.Shape.MOORE);
+    }
 
     /**
-     * Constructs a new World with dimensions w and h
+     * Constructs a new World with dimensions w and h and a neighbourhood of any radius and shape
      *
      * @param w width of the World
      * @param h height of the World
+     * @param radius the neighbourhood radius
+     * @param shape the neighbourhood shape
+     * @throws IllegalArgumentException if the dimensions or the radius are not positive or the World would be too large
+     */
+    public World(int w, int h, int radius, Neighbourhood.Shape shape) throws IllegalArgumentException {
+        this(new Neighbourhood(w, h, radius, shape));
+    }
+
+    /**
+     * Constructs a new World in which the cells are the nodes of a Topology, such as a torus or a network. The World has the
+     * same width and height as the Topology
+     *
+     * @param topology describes which cells are neighbours of each other
+     */
+    public World(Topology topology) {
+        this(topology, false);
+    }
+
+    /**
+     * Constructs a new World in which the cells are the nodes of a Topology, optionally storing the state of the cells in
+     * chunks
+     *
+     * @param topology describes which cells are neighbours of each other
+     * @param chunked true to store the cells in chunks that are shared while uniform, false to store them in flat arrays
      */
-    public World(int w, int h) {
+    public World(Topology topology, boolean chunked) {
+        int w = topology.getWidth();
+        int h = topology.getHeight();
+
         this.width = w;
         this.height = h;
-        this.cellList = new ArrayList<>();
+        this.size = w * h;
+        this.groups = new ChunkedBytes(w * h, EMPTY, chunked);
+        this.topology = topology;
+        this.occupiedCounts = new ChunkedInts(w * h, 0, chunked);
+        this.groupCounts = new ChunkedInts[0];
+        this.store = null;
+        this.unhappyCells = new IndexSet(w * h, chunked);
+        this.uniformThreshold = Float.NaN;
+    }
 
-        for (int i = 0; i < this.width; i++) {
-            for (int j = 0; j < this.height; j++) {
-                cellList.add(new Cell(this, i, j));
-            }
+    /**
+     * Constructs a World whose cells are kept outside the heap by a GridStore. If the store was opened from a grid file that
+     * already holds agents, these agents are taken over with the threshold recorded in the file, and the set of unhappy agents
+     * is built when it is first needed; the counters are used as they are. The set of unhappy agents is kept on the heap, in
+     * chunks so that it takes little memory while few agents are unhappy, and so is the AgentStore once it is needed
+     *
+     * @param store the store holding the cells, which must not be used by another World
+     */
+    public World(GridStore store) {
+        Topology topology = store.getTopology();
+
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        this.size = topology.getSize();
+        this.groups = store.getGroups();
+        this.topology = topology;
+        this.occupiedCounts = store.getOccupiedCounts();
+        this.groupCounts = store.getGroupCounts();
+        this.store = store;
+        this.unhappyCells = new IndexSet(this.size, true);
+        this.uniformThreshold = store.getUniformThreshold();
+        this.tracking = false;
+
+        for (int i = this.nextAgent(0); i < this.size; i = this.nextAgent(i + 1)) {
+            this.agentCount++;
         }
     }
 
@@ -45,6 +163,99 @@ public class World {
         return this.height;
     }
 
+    /**
+     * @return the number of cells in the World
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return the Topology describing which cells of the World are neighbours
+     */
+    public Topology getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * @return true if the World is a bounded rectangular grid, whose Topology is a Neighbourhood that does not wrap around
+     */
+    public boolean isBoundedGrid() {
+        return this.topology.isBoundedGrid();
+    }
+
+    /**
+     * Changes which cells are neighbours of each other. The counters of all cells are recomputed at once and the set of
+     * unhappy agents is rebuilt
+     *
+     * @param topology the new Topology
+     * @throws IllegalArgumentException if the Topology does not have the same dimensions as the World
+     */
+    public void setTopology(Topology topology) throws IllegalArgumentException {
+        if (topology.getWidth() != this.width || topology.getHeight() != this.height) {
+            throw new IllegalArgumentException("Topology does not match the dimensions of the World");
+        }
+
+        this.topology = topology;
+        if (this.store != null) {
+            this.store.setTopology(topology);
+        }
+        this.recount();
+        this.tracking = false;
+        this.resumeTracking();
+    }
+
+    /**
+     * @return the number of agents in the World
+     */
+    public int getAgentCount() {
+        return this.agentCount;
+    }
+
+    /**
+     * @return one more than the highest group that has ever been placed in the World
+     */
+    public int getNumberOfGroups() {
+        return this.groupCounts.length;
+    }
+
+    /**
+     * @return the number of moves made in the World since it was created
+     */
+    public long getMoveCount() {
+        return this.moveCount;
+    }
+
+    /**
+     * @param x x-coordinate of the Cell
+     * @param y y-coordinate of the Cell
+     * @return index of the Cell with coordinates x and y
+     * @throws IllegalArgumentException if the World does not contain the x and y coordinates specified
+     */
+    public int getIndex(int x, int y) throws IllegalArgumentException {
+        if (x < this.width && y < this.height && x >= 0 && y >= 0) {
+            return y * this.width + x;
+        }
+
+        throw new IllegalArgumentException("Invalid coordinates");
+    }
+
+    /**
+     * @param index index of a Cell
+     * @return x-coordinate of the Cell
+     */
+    public int getX(int index) {
+        return index % this.width;
+    }
+
+    /**
+     * @param index index of a Cell
+     * @return y-coordinate of the Cell
+     */
+    public int getY(int index) {
+        return index / this.width;
+    }
+
     /**
      * @param x x-coordinate of the Cell
      * @param y y-coordinate of the Cell
@@ -52,37 +263,365 @@ public class World {
      * @throws IllegalArgumentException if the World does not contain the x and y coordinates specified
      */
     public Cell getCell(int x, int y) throws IllegalArgumentException {
-        if (x < this.width && y < this.height && x >= 0 && y >= 0) {
-            for (Cell cell : this.cellList) {
-                if (cell.getX() == x & cell.getY() == y) {
-                    return cell;
-                }
+        return new Cell(this, x, y, this.getIndex(x, y));
+    }
+
+    /**
+     * @param index index of the Cell
+     * @return Cell with the specified index
+     */
+    public Cell getCell(int index) {
+        return new Cell(this, this.getX(index), this.getY(index), index);
+    }
+
+    /**
+     * @param index index of a Cell
+     * @return true if the Cell does not contain an agent
+     */
+    public boolean isEmpty(int index) {
+        return this.groups.get(index) == EMPTY;
+    }
+
+    /**
+     * @param index index of a Cell
+     * @return group of the agent in the Cell, or EMPTY if the Cell is empty
+     */
+    public int getGroup(int index) {
+        return this.groups.get(index);
+    }
+
+    /**
+     * @param index index of an occupied Cell
+     * @return satisfaction threshold of the agent in the Cell
+     */
+    public float getThreshold(int index) {
+        return this.heterogeneous ? this.agents.getThreshold(this.agents.getPosition(index)) : this.uniformThreshold;
+    }
+
+    /**
+     * @return the satisfaction threshold shared by all agents, or NaN if the agents have different thresholds or no
+     * threshold has been set yet
+     */
+    public double getUniformThreshold() {
+        return this.heterogeneous ? Double.NaN : this.uniformThreshold;
+    }
+
+    /**
+     * Changes the satisfaction threshold of the agent in a Cell
+     *
+     * @param index index of an occupied Cell
+     * @param threshold the new satisfaction threshold
+     */
+    public void setThreshold(int index, double threshold) {
+        this.resumeTracking();
+        this.storeThreshold(index, (float) threshold);
+        this.updateHappiness(index);
+    }
+
+    /**
+     * Gives every agent in the World the same satisfaction threshold
+     *
+     * @param threshold the new satisfaction threshold
+     */
+    public void setSatisfactionThreshold(double threshold) {
+        this.heterogeneous = false;
+        this.setUniformThreshold((float) threshold);
+
+        if (this.tracking) {
+            for (int i = this.nextAgent(0); i < this.size; i = this.nextAgent(i + 1)) {
+                this.updateHappiness(i);
             }
         }
+    }
 
-        throw new IllegalArgumentException("Invalid coordinates");
+    /**
+     * Places a new agent in an empty Cell
+     *
+     * @param index index of the Cell
+     * @param group group of the agent
+     * @param threshold satisfaction threshold of the agent
+     * @throws IllegalArgumentException if the Cell is occupied or the group is invalid, or does not fit in the GridStore
+     */
+    public void addAgent(int index, int group, double threshold) throws IllegalArgumentException {
+        if (group < 0 || group > Byte.MAX_VALUE || (this.store != null && group >= this.groupCounts.length)) {
+            throw new IllegalArgumentException("Invalid group");
+        }
+        if (!this.isEmpty(index)) {
+            throw new IllegalArgumentException("Cell is occupied");
+        }
+
+        this.resumeTracking();
+
+        if (group >= this.groupCounts.length) {
+            this.groupCounts = Arrays.copyOf(this.groupCounts, group + 1);
+        }
+        if (this.groupCounts[group] == null) {
+            this.groupCounts[group] = new ChunkedInts(this.size, 0, this.isChunked());
+        }
+
+        this.storeThreshold(index, (float) threshold);
+        this.groups.set(index, (byte) group);
+        this.agentCount++;
+        if (this.agents != null) {
+            this.agents.add(index, group, (float) threshold);
+        }
+        this.updateCounts(index, group, 1);
+        this.track(index);
+
+        for (WorldListener listener : this.listeners) {
+            listener.cellChanged(index);
+        }
+    }
+
+    /**
+     * Removes the agent from a Cell, if it contains one
+     *
+     * @param index index of the Cell
+     */
+    public void removeAgent(int index) {
+        if (!this.isEmpty(index)) {
+            this.resumeTracking();
+
+            int group = this.groups.get(index);
+            this.untrack(index, group);
+            this.groups.set(index, EMPTY);
+            this.agentCount--;
+            if (this.agents != null) {
+                this.agents.remove(index);
+            }
+            this.updateCounts(index, group, -1);
+
+            for (WorldListener listener : this.listeners) {
+                listener.cellChanged(index);
+            }
+        }
+    }
+
+    /**
+     * Moves the agent in one Cell to another, empty, Cell
+     *
+     * @param from index of the Cell containing the agent
+     * @param to index of the empty Cell
+     * @throws IllegalArgumentException if from is empty or to is occupied
+     */
+    public void moveAgent(int from, int to) throws IllegalArgumentException {
+        if (from == to) {
+            return;
+        }
+        if (this.isEmpty(from) || !this.isEmpty(to)) {
+            throw new IllegalArgumentException("Invalid move");
+        }
+
+        this.resumeTracking();
+        this.untrack(from, this.groups.get(from));
+        this.transfer(from, to);
+        this.track(to);
+        this.moveCount++;
+
+        for (WorldListener listener : this.listeners) {
+            listener.agentMoved(from, to);
+        }
+    }
+
+    /**
+     * Moves the agent in one Cell to another, empty, Cell without maintaining the set of unhappy agents or the move count.
+     * Only the counters of the cells within the neighbourhood of from and to are changed, so agents can be relocated
+     * concurrently by several threads as long as the neighbourhoods of the cells they touch do not overlap. Tracking must
+     * be suspended while doing so, and the moves must be accounted for with addMoves afterwards
+     *
+     * @param from index of the Cell containing the agent
+     * @param to index of the empty Cell
+     * @throws IllegalStateException if tracking is not suspended
+     */
+    public void relocate(int from, int to) throws IllegalStateException {
+        if (this.tracking) {
+            throw new IllegalStateException("Tracking is not suspended");
+        }
+
+        this.transfer(from, to);
+
+        for (WorldListener listener : this.listeners) {
+            listener.agentMoved(from, to);
+        }
     }
 
     /**
-     * @return ArrayList containing all Agents in the World
+     * Adds moves made through relocate to the move count
+     *
+     * @param moves the number of moves
+     */
+    public void addMoves(long moves) {
+        this.moveCount += moves;
+    }
+
+    /**
+     * Registers a listener that is notified of every change to the agents in the World
+     *
+     * @param listener the listener
+     */
+    public void addListener(WorldListener listener) {
+        WorldListener[] listeners = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+        listeners[this.listeners.length] = listener;
+        this.listeners = listeners;
+    }
+
+    /**
+     * Stops notifying a listener, if it was registered
+     *
+     * @param listener the listener
+     */
+    public void removeListener(WorldListener listener) {
+        for (int i = 0; i < this.listeners.length; i++) {
+            if (this.listeners[i] == listener) {
+                WorldListener[] listeners = new WorldListener[this.listeners.length - 1];
+                System.arraycopy(this.listeners, 0, listeners, 0, i);
+                System.arraycopy(this.listeners, i + 1, listeners, i, listeners.length - i);
+                this.listeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops maintaining the set of unhappy agents until it is needed again, which allows agents to be relocated
+     * concurrently. The set is rebuilt as soon as it is read or the World is changed through any method other than relocate
+     */
+    public void suspendTracking() {
+        this.tracking = false;
+    }
+
+    /**
+     * @param index index of a Cell
+     * @param group the group to compare with
+     * @param includeMiddle whether the Cell itself counts as one of its neighbours
+     * @return fraction of the occupied neighbouring Cells containing an agent of the group, 0 if no neighbour is occupied
+     */
+    public double getPercentage(int index, int group, boolean includeMiddle) {
+        int n = this.occupiedCounts.get(index);
+        int g = this.getGroupCount(index, group);
+
+        if (includeMiddle && !this.isEmpty(index)) {
+            n++;
+            if (this.groups.get(index) == group) {
+                g++;
+            }
+        }
+
+        if (n == 0) {
+            return 0;
+        }
+
+        return (double) g / n;
+    }
+
+    /**
+     * @param index index of a Cell
+     * @return number of occupied neighbours of the Cell
+     */
+    public int getOccupiedCount(int index) {
+        return this.occupiedCounts.get(index);
+    }
+
+    /**
+     * @param index index of a Cell
+     * @param group a group
+     * @return number of neighbours of the Cell containing an agent of the group
+     */
+    public int getGroupCount(int index, int group) {
+        if (group < 0 || group >= this.groupCounts.length || this.groupCounts[group] == null) {
+            return 0;
+        }
+
+        return this.groupCounts[group].get(index);
+    }
+
+    /**
+     * @param index index of an occupied Cell
+     * @return true if the agent in the Cell is satisfied with its neighbourhood
+     */
+    public boolean isSatisfied(int index) {
+        return isSatisfied(this.getPercentage(index, this.groups.get(index), false), this.getThreshold(index));
+    }
+
+    /**
+     * Compares a neighbourhood fraction with a satisfaction threshold. Both are compared with float precision, since that
+     * is the precision with which thresholds are stored
+     *
+     * @param percentage fraction of same-group neighbours
+     * @param threshold satisfaction threshold
+     * @return true if the fraction satisfies the threshold
+     */
+    public static boolean isSatisfied(double percentage, double threshold) {
+        return (float) percentage >= (float) threshold;
+    }
+
+    /**
+     * Creates a view on every agent in the World. To go over the agents without creating objects, use getAgentStore instead
+     *
+     * @return ArrayList containing all Agents in the World, in the order of the AgentStore
      */
     public List<Agent> getAgents() {
-        ArrayList<Agent> agents = new ArrayList<>();
+        AgentStore agents = this.getAgentStore();
+        ArrayList<Agent> list = new ArrayList<>(agents.size());
 
-        for (Cell cell : this.cellList) {
-            if (!cell.isEmpty()) {
-                agents.add(cell.getAgent());
+        for (int position = 0; position < agents.size(); position++) {
+            list.add(new Agent(this, agents.getCell(position)));
+        }
+
+        return list;
+    }
+
+    /**
+     * Gives access to the cell, group and threshold of every agent by position. The store is built from the cells the first
+     * time it is asked for, which must not happen while agents are relocated concurrently. It must only be read: agents are
+     * added, removed and moved through the World. The threshold in the store is only valid if the agents have their own
+     * thresholds; otherwise use getThreshold or getUniformThreshold
+     *
+     * @return the AgentStore of the World
+     */
+    public AgentStore getAgentStore() {
+        if (this.agents == null) {
+            AgentStore agents = new AgentStore(this.size, this.store != null || this.isChunked());
+
+            for (int i = this.nextAgent(0); i < this.size; i = this.nextAgent(i + 1)) {
+                agents.add(i, this.groups.get(i), this.uniformThreshold);
             }
+
+            this.agents = agents;
         }
 
-        return agents;
+        return this.agents;
+    }
+
+    /**
+     * Collects the cells of all agents in the order of the cells. Unlike the order of the AgentStore, which depends on the
+     * order in which agents were added and removed, this order only depends on which cells are occupied
+     *
+     * @param cells an array that is reused if it can hold getAgentCount() cells, or null
+     * @return an array holding the cells of the agents in its first getAgentCount() elements
+     */
+    public int[] getAgentCells(int[] cells) {
+        int[] result = cells != null && cells.length >= this.agentCount ? cells : new int[this.agentCount];
+        int count = 0;
+
+        for (int i = this.nextAgent(0); i < this.size; i = this.nextAgent(i + 1)) {
+            result[count++] = i;
+        }
+
+        return result;
     }
 
     /**
      * @return ArrayList containing all Cells belonging to the World
      */
     public List<Cell> getCellList() {
-        return new ArrayList<>(this.cellList);
+        ArrayList<Cell> cells = new ArrayList<>(this.size);
+
+        for (int i = 0; i < this.size; i++) {
+            cells.add(this.getCell(i));
+        }
+
+        return cells;
     }
 
     /**
@@ -90,30 +629,346 @@ public class World {
      * @return double containing the Segregation perentage
      */
     public double getSegregation() {
-        double sum = 0;
-        double agents = 0;
+        this.resumeTracking();
+        return this.fractionSum / FRACTION_SCALE / this.agentCount;
+    }
+
+    /**
+     *
+     * @return double containing the fraction of agents that are not satisfied with their neighbourhood
+     */
+    public double getUnhappiness() {
+        this.resumeTracking();
+        return (double) this.unhappyCells.size() / this.agentCount;
+    }
+
+    /**
+     * @return the number of agents that are not satisfied with their neighbourhood
+     */
+    public int getUnhappyCount() {
+        this.resumeTracking();
+        return this.unhappyCells.size();
+    }
+
+    /**
+     * Gives access to the unhappy agents by position, so that one can be drawn at random in O(1). Positions change
+     * whenever an agent becomes happy or unhappy
+     *
+     * @param position position between 0 and getUnhappyCount() - 1
+     * @return index of the Cell containing the unhappy agent at the position
+     */
+    public int getUnhappyCell(int position) {
+        this.resumeTracking();
+        return this.unhappyCells.get(position);
+    }
+
+    /**
+     * @return true if the agents have their own thresholds, false if they share getUniformThreshold()
+     */
+    boolean hasThresholdPerAgent() {
+        return this.heterogeneous;
+    }
 
-        for (int i = 0; i < this.cellList.size(); i++) {
-            Cell cell = this.cellList.get(i);
+    /**
+     * @return true if the set of unhappy agents is currently maintained, false if tracking is suspended
+     */
+    boolean isTracking() {
+        return this.tracking;
+    }
 
-            if (!cell.isEmpty()) {
-                sum += cell.getPercentage(cell.getAgent().getGroup(), false);
-                agents++;
+    /**
+     * Prepares an empty World for being filled from a checkpoint with restoreAgent and restoreThreshold. Tracking is suspended until
+     * finishRestore is called
+     *
+     * @param numberOfGroups the number of groups of the saved World
+     * @param uniformThreshold the threshold shared by all agents, or the default for empty cells if thresholds differ
+     * @param heterogeneous whether the agents have their own thresholds
+     * @throws IllegalStateException if the World is not empty, or its GridStore cannot hold that many groups
+     */
+    void beginRestore(int numberOfGroups, float uniformThreshold, boolean heterogeneous) throws IllegalStateException {
+        if (this.agentCount != 0) {
+            throw new IllegalStateException("World is not empty");
+        }
+
+        this.tracking = false;
+        if (this.store == null) {
+            this.groupCounts = new ChunkedInts[numberOfGroups];
+            for (int group = 0; group < numberOfGroups; group++) {
+                this.groupCounts[group] = new ChunkedInts(this.size, 0, this.isChunked());
             }
+        } else if (numberOfGroups > this.groupCounts.length) {
+            throw new IllegalStateException("GridStore cannot hold " + numberOfGroups + " groups");
         }
 
-        return sum / agents;
+        this.setUniformThreshold(uniformThreshold);
+        this.heterogeneous = heterogeneous;
+        if (heterogeneous) {
+            this.getAgentStore();
+        }
     }
 
-    public double getUnhappiness() {
-        double n = 0;
+    /**
+     * Places an agent without updating any counters. Only valid between beginRestore and finishRestore
+     */
+    void restoreAgent(int index, int group) {
+        this.groups.set(index, (byte) group);
+        this.agentCount++;
+        if (this.agents != null) {
+            this.agents.add(index, group, this.uniformThreshold);
+        }
+    }
+
+    /**
+     * Sets the threshold of a restored agent whose World has heterogeneous thresholds. Only valid between beginRestore and
+     * finishRestore
+     */
+    void restoreThreshold(int index, float threshold) {
+        this.agents.setThreshold(this.agents.getPosition(index), threshold);
+    }
+
+    /**
+     * Recomputes the neighbour counters of all cells after the agents have been restored. If the saved World was tracking,
+     * the fraction sum is recomputed and the set of unhappy agents is left empty, to be filled with restoreUnhappyCell in its
+     * saved order; otherwise tracking stays suspended and the set is rebuilt when it is needed
+     *
+     * @param moveCount the saved move count
+     * @param tracking whether the saved World was tracking
+     */
+    void finishRestore(long moveCount, boolean tracking) {
+        this.moveCount = moveCount;
+        this.recount();
+
+        if (tracking) {
+            this.tracking = true;
+            this.unhappyCells.clear();
+            this.fractionSum = 0;
+
+            for (int i = this.nextAgent(0); i < this.size; i = this.nextAgent(i + 1)) {
+                this.fractionSum += this.getScaledFraction(i, this.groups.get(i));
+            }
+        }
+    }
+
+    /**
+     * Appends a Cell to the set of unhappy agents, so the positions of the unhappy agents are the same as when the World was
+     * saved
+     *
+     * @throws IllegalStateException if the Cell does not contain an unhappy agent
+     */
+    void restoreUnhappyCell(int index) throws IllegalStateException {
+        if (this.isEmpty(index) || this.isSatisfied(index) || this.unhappyCells.contains(index)) {
+            throw new IllegalStateException("Cell " + index + " does not contain an unhappy agent");
+        }
+
+        this.unhappyCells.add(index);
+    }
+
+    /**
+     * Releases the memory of chunks of cells that have become uniform since the last compaction, for instance because a
+     * region has been left empty or has been taken over by a single group. This takes time proportional to the number of
+     * chunks changed since then. Must not be called while agents are relocated concurrently
+     */
+    public void compact() {
+        this.groups.compact();
+        this.occupiedCounts.compact();
+        if (this.agents != null) {
+            this.agents.compact();
+        }
+
+        for (ChunkedInts counts : this.groupCounts) {
+            if (counts != null) {
+                counts.compact();
+            }
+        }
+    }
+
+    /**
+     * @return the store outside the heap holding the cells, or null if they are on the heap
+     */
+    public GridStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * @return true if the state of the cells is stored in chunks, false if it is stored in flat arrays or outside the heap
+     */
+    public boolean isChunked() {
+        return this.groups.isChunked();
+    }
+
+    /**
+     * @return the number of bytes taken by the state of the cells, on the heap or outside it, and by the AgentStore, not counting
+     * shared chunks
+     */
+    public long getAllocatedBytes() {
+        long bytes = this.groups.getAllocatedBytes() + this.occupiedCounts.getAllocatedBytes();
+
+        for (ChunkedInts counts : this.groupCounts) {
+            if (counts != null) {
+                bytes += counts.getAllocatedBytes();
+            }
+        }
+
+        return bytes + (this.agents == null ? 0 : this.agents.getAllocatedBytes());
+    }
+
+    /**
+     * Recomputes the neighbour counters of all cells from the groups of the cells
+     */
+    private void recount() {
+        this.occupiedCounts.fill(0);
+
+        for (int group = 0; group < this.groupCounts.length; group++) {
+            ChunkedInts counts = this.groupCounts[group];
+
+            if (counts != null) {
+                this.topology.count(this.groups, group, counts);
+
+                for (int i = 0; i < this.size; i++) {
+                    int count = counts.get(i);
+
+                    if (count != 0) {
+                        this.occupiedCounts.add(i, count);
+                    }
+                }
+            }
+        }
+
+        this.compact();
+    }
+
+    /**
+     * @return index of the first occupied Cell at or after an index, or getSize() if there is none
+     */
+    private int nextAgent(int from) {
+        return this.groups.next(from, EMPTY);
+    }
+
+    /**
+     * Rebuilds the set of unhappy agents if tracking was suspended
+     */
+    private void resumeTracking() {
+        if (!this.tracking) {
+            this.tracking = true;
+            this.unhappyCells.clear();
+            this.fractionSum = 0;
 
-        for (Agent agent : this.getAgents()) {
-            if (agent.getCurrentCell().getPercentage(agent.getGroup(), false) < agent.getSatisfactionThreshold()) {
-                n++;
+            for (int i = this.nextAgent(0); i < this.size; i = this.nextAgent(i + 1)) {
+                this.track(i);
             }
         }
+    }
+
+    /**
+     * Moves an agent from one Cell to another and updates the counters around both Cells
+     */
+    private void transfer(int from, int to) {
+        int group = this.groups.get(from);
+        this.groups.set(from, EMPTY);
+        this.updateCounts(from, group, -1);
+
+        this.groups.set(to, (byte) group);
+        if (this.agents != null) {
+            this.agents.move(from, to);
+        }
+        this.updateCounts(to, group, 1);
+    }
+
+    /**
+     * Adds delta to the counters of all neighbours of a Cell whose occupation by a group changes. Since the neighbourhood
+     * of the occupied neighbours changes, their happiness is updated as well
+     */
+    private void updateCounts(int index, int group, int delta) {
+        ChunkedInts counts = this.groupCounts[group];
+        int[] offsets = this.topology.getOffsets(index);
+        int end = this.topology.getEnd(index);
+
+        for (int k = this.topology.getStart(index); k < end; k++) {
+            int neighbour = index + offsets[k];
+            int neighbourGroup = this.groups.get(neighbour);
+
+            if (neighbourGroup == EMPTY) {
+                this.occupiedCounts.add(neighbour, delta);
+                counts.add(neighbour, delta);
+            } else {
+                this.untrack(neighbour, neighbourGroup);
+                this.occupiedCounts.add(neighbour, delta);
+                counts.add(neighbour, delta);
+                this.track(neighbour);
+            }
+        }
+    }
+
+    /**
+     * Adds the same-group fraction of the agent in a Cell to the fraction sum and updates its happiness
+     */
+    private void track(int index) {
+        if (this.tracking) {
+            this.fractionSum += this.getScaledFraction(index, this.groups.get(index));
+            this.updateHappiness(index);
+        }
+    }
 
-        return n / this.getAgents().size();
+    /**
+     * Removes the agent in a Cell from the fraction sum and the set of unhappy agents, before its neighbourhood changes
+     */
+    private void untrack(int index, int group) {
+        if (this.tracking) {
+            this.fractionSum -= this.getScaledFraction(index, group);
+            this.unhappyCells.remove(index);
+        }
+    }
+
+    private long getScaledFraction(int index, int group) {
+        return Math.round(this.getPercentage(index, group, false) * FRACTION_SCALE);
+    }
+
+    /**
+     * Adds an occupied Cell to the set of unhappy Cells or removes it from the set, depending on the happiness of its agent
+     */
+    private void updateHappiness(int index) {
+        if (!this.tracking) {
+            return;
+        }
+
+        if (this.isSatisfied(index)) {
+            this.unhappyCells.remove(index);
+        } else {
+            this.unhappyCells.add(index);
+        }
+    }
+
+    /**
+     * Records the threshold of an agent that is about to be placed or already present, giving the agents their own thresholds
+     * once it differs from the shared one. The threshold of an agent that is about to be placed is written by AgentStore.add
+     */
+    private void storeThreshold(int index, float threshold) {
+        if (!this.heterogeneous) {
+            if (this.agentCount == 0 || Float.isNaN(this.uniformThreshold)) {
+                this.setUniformThreshold(threshold);
+                return;
+            }
+            if (Float.compare(threshold, this.uniformThreshold) == 0) {
+                return;
+            }
+
+            this.getAgentStore().fillThresholds(this.uniformThreshold);
+            this.heterogeneous = true;
+        }
+
+        int position = this.agents.getPosition(index);
+        if (position >= 0) {
+            this.agents.setThreshold(position, threshold);
+        }
+    }
+
+    /**
+     * Sets the threshold shared by all agents, and records it in the GridStore so a reopened World uses it as well
+     */
+    private void setUniformThreshold(float threshold) {
+        this.uniformThreshold = threshold;
+        if (this.store != null) {
+            this.store.setUniformThreshold(threshold);
+        }
     }
 }
@@ -0,0 +1,20 @@
+/**
+ * Receives the changes made to a World. The methods are called right after the change, on the thread that made it. During a
+ * parallel sweep agentMoved is called concurrently by several threads, so a listener used with sweeps must be thread-safe.
+ */
+public interface WorldListener {
+    /**
+     * Called after an agent has been added to or removed from a Cell
+     *
+     * @param index index of the Cell
+     */
+    void cellChanged(int index);
+
+    /**
+     * Called after an agent has moved from one Cell to another
+     *
+     * @param from index of the Cell the agent left
+     * @param to index of the Cell the agent moved to
+     */
+    void agentMoved(int from, int to);
+}
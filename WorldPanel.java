@@ -2,36 +2,57 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
 
 import javax.swing.JPanel;
 
 
 /**
  * Visualization class for the Creature simulation
+ *
+ * The cells are rendered into an indexed-colour image with one pixel per cell, by writing the group of every cell straight
+ * into the data buffer of the image. The image is scaled to the panel with a single drawImage, and the grid lines are drawn
+ * once into a transparent image that is reused as long as the cell size stays the same.
+ * The panel listens to the changes of its world and only repaints the cells that changed since the last paint, so the cost of
+ * following a running simulation is proportional to the number of moves rather than to the size of the world.
  * @author Paul Bouman
  */
 
 public class WorldPanel extends JPanel
 {
 	// Colors to be used for different types of creatures. If more than six types are created,
-	// this arrays needs to be extended.
+	// the colors are reused.
 	private static final Color [] colors = {Color.RED, Color.BLUE, Color.GREEN,
 											Color.ORANGE, Color.PINK, Color.CYAN};
 
 	// Since JPanel implements the serializable class some random number should be added.
 	private static final long serialVersionUID = -8647476667068294328L;
 
-	// Map that assigns a creature type to a color
-	private HashMap<Integer, Color> colorMap;
+	// Palette of the cell image: index 0 is an empty cell, index g + 1 an agent of group g
+	private static final IndexColorModel palette = createPalette();
+
+	// Grid lines are only drawn if cells are at least this many pixels wide, otherwise they would hide the agents
+	private static final int MIN_GRID_CELL_SIZE = 3;
 	
 	// The world to simulate
 	private World world;
 	
-	// The current drawing of the World state
+	// The current drawing of the World state, one pixel per cell, and the palette indices it consists of
 	private BufferedImage currentImage;
+	private byte[] pixels;
+
+	// The grid lines for the cell size gridCellSize
+	private BufferedImage gridImage;
+	private int gridCellSize;
+
+	// Cells that changed since the last paint, possibly more than once. If too many cells change, all cells are redrawn
+	// instead. Changes are reported by the simulation thread, so these fields are guarded by dirtyLock
+	private final Object dirtyLock = new Object();
+	private final WorldListener changeTracker = new ChangeTracker();
+	private int[] dirtyCells;
+	private int dirtyCount;
+	private boolean refreshAll;
 	
 	/**
 	 * Constructor takes a world of which the current state will be drawn by this component
@@ -41,7 +62,7 @@ public class WorldPanel extends JPanel
 	{
 		super();
 		world = w;
-		colorMap = new HashMap<>();
+		world.addListener(changeTracker);
 		initializeWorld();
 	}
 	
@@ -51,21 +72,39 @@ public class WorldPanel extends JPanel
 	@Override
 	public void paintComponent(Graphics g)
 	{
-		if (currentImage == null)
+		int w = getWidth();
+		int h = getHeight();
+
+		if (w < 1 || h < 1)
 		{
-			initializeWorld();
+			return;
 		}
-		if (currentImage != null)
+
+		drawAgents();
+
+		int cellSize = getCellSize();
+		int boardWidth = cellSize * world.getWidth();
+		int boardHeight = cellSize * world.getHeight();
+
+		// If the world has more cells than the panel has pixels, the cells are scaled down to fit the panel
+		if (cellSize == 0)
+		{
+			double scale = Math.min((double) w / world.getWidth(), (double) h / world.getHeight());
+			boardWidth = Math.max(1, (int) (scale * world.getWidth()));
+			boardHeight = Math.max(1, (int) (scale * world.getHeight()));
+		}
+
+		// Only the part of the panel that is not covered by the world has to be cleared
+		g.setColor(Color.WHITE);
+		g.fillRect(boardWidth, 0, w - boardWidth, h);
+		g.fillRect(0, boardHeight, boardWidth, h - boardHeight);
+		g.drawImage(currentImage, 0, 0, boardWidth, boardHeight, null);
+
+		if (cellSize >= MIN_GRID_CELL_SIZE)
 		{
-			int w = getWidth();
-			int h = getHeight();
-			g.setColor(Color.WHITE);
-			g.fillRect(0, 0, w, h);
-			drawCells(g);
-			drawGrid(g);
-			drawAgents(g);
-			//drawLegend(g);
+			g.drawImage(getGridImage(cellSize), 0, 0, null);
 		}
+		//drawLegend(g);
 	}
 	
 	/**
@@ -73,26 +112,24 @@ public class WorldPanel extends JPanel
 	 */
 	public void initializeWorld()
 	{
-		int w = getWidth();
-		int h = getHeight();
-		if (w < 1 || h < 1)
+		currentImage = new BufferedImage(world.getWidth(), world.getHeight(), BufferedImage.TYPE_BYTE_INDEXED, palette);
+		pixels = ((DataBufferByte) currentImage.getRaster().getDataBuffer()).getData();
+		gridImage = null;
+
+		synchronized (dirtyLock)
 		{
-			return;
+			dirtyCells = new int[Math.max(64, world.getSize() / 16)];
+			dirtyCount = 0;
+			refreshAll = true;
 		}
-		BufferedImage newImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-		Graphics g = newImage.getGraphics();
-		g.setColor(Color.WHITE);
-		g.fillRect(0, 0, w, h);
-		drawCells(g);
-		drawGrid(g);
-		drawAgents(g);
-		//drawLegend(g);
-		currentImage = newImage;
 		repaint();
 	}
 
 	public void resetWorld() {
+		this.world.removeListener(changeTracker);
 		this.world = new World(50, 50);
+		this.world.addListener(changeTracker);
+		initializeWorld();
 	}
 
 	public World getWorld() {
@@ -100,15 +137,22 @@ public class WorldPanel extends JPanel
 	}
 	
 	/**
-	 * Draws the grid according to the number of cells in the world
-	 * @param gr the graphics to draw on
+	 * Returns the grid lines for a cell size, drawing them if the cell size has changed
+	 * @param cellSize the width and height of a cell
+	 * @return a transparent image containing the grid lines
 	 */
-	private void drawGrid(Graphics gr)
+	private BufferedImage getGridImage(int cellSize)
 	{
-		gr.setColor(Color.BLACK);
-		int cellSize = getCellSize();
+		if (gridImage != null && gridCellSize == cellSize)
+		{
+			return gridImage;
+		}
+
 		int boardHeight = cellSize * world.getHeight();
 		int boardWidth = cellSize * world.getWidth();
+		BufferedImage image = new BufferedImage(boardWidth + 1, boardHeight + 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics gr = image.getGraphics();
+		gr.setColor(Color.BLACK);
 		for (int col=0; col <= world.getWidth(); col++)
 		{
 			int x = col * cellSize;
@@ -119,57 +163,83 @@ public class WorldPanel extends JPanel
 			int y = row * cellSize;
 			gr.drawLine(0, y, boardWidth, y);
 		}
+		gr.dispose();
+
+		gridImage = image;
+		gridCellSize = cellSize;
+		return image;
 	}
 	
 	/**
-	 * Draws the background of the cells based on the amount of wealth available in the cell
-	 * @param gr the graphics to draw on
+	 * Writes the palette index of every changed cell into the cell image: 0 for an empty cell, the group plus one for an agent
 	 */
-	private void drawCells(Graphics gr)
+	private void drawAgents()
 	{
-		int cellSize = getCellSize();
-		for (int x=0; x < world.getWidth(); x++)
+		if (currentImage.getWidth() != world.getWidth() || currentImage.getHeight() != world.getHeight())
+		{
+			initializeWorld();
+		}
+
+		synchronized (dirtyLock)
 		{
-			for (int y=0; y < world.getHeight(); y++)
+			if (refreshAll)
 			{
-				Cell c = world.getCell(x, y);
-				gr.setColor(Color.WHITE);
-				gr.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
+				for (int i = 0; i < pixels.length; i++)
+				{
+					pixels[i] = (byte) (world.getGroup(i) + 1);
+				}
 			}
+			else
+			{
+				for (int k = 0; k < dirtyCount; k++)
+				{
+					int i = dirtyCells[k];
+					pixels[i] = (byte) (world.getGroup(i) + 1);
+				}
+			}
+
+			dirtyCount = 0;
+			refreshAll = false;
 		}
 	}
-	
+
 	/**
-	 * Draws creatures as filled circles with colors based on their types
-	 * @param gr the graphics to draw on
+	 * Remembers that a cell has to be redrawn and asks Swing to repaint its rectangle
+	 * @param index the index of the cell
 	 */
-	private void drawAgents(Graphics gr)
+	private void markDirty(int index)
 	{
-		for (int x = 0; x < world.getWidth(); x++)
+		synchronized (dirtyLock)
 		{
-			for (int y=0; y < world.getHeight(); y++)
+			if (refreshAll)
+			{
+				return;
+			}
+			if (dirtyCount == dirtyCells.length)
 			{
-				Cell cell = world.getCell(x, y);
-				drawAgentsInCell(gr,cell);
+				refreshAll = true;
+				repaint();
+				return;
 			}
+
+			dirtyCells[dirtyCount++] = index;
 		}
-	}
-	
-	/**
-	 * Helper function for drawing creatures. Draws all creatures in a single cell
-	 * @param gr the graphics to draw one
-	 * @param cell the cell for which to draw the creatures
-	 */
-	private void drawAgentsInCell(Graphics gr, Cell cell)
-	{
+
 		int cellSize = getCellSize();
-		int cellX = cell.getX() * cellSize;
-		int cellY = cell.getY() * cellSize;
+		int x = world.getX(index);
+		int y = world.getY(index);
 
-		if (!cell.isEmpty()) {
-			Color color = getAgentColor(cell.getAgent());
-			gr.setColor(color);
-			gr.fillRect(cellX, cellY, cellSize, cellSize);
+		if (cellSize > 0)
+		{
+			// One pixel more to the right and the bottom, for the grid lines
+			repaint(x * cellSize, y * cellSize, cellSize + 1, cellSize + 1);
+		}
+		else
+		{
+			double scale = Math.min((double) getWidth() / world.getWidth(), (double) getHeight() / world.getHeight());
+			int left = (int) (x * scale);
+			int top = (int) (y * scale);
+			repaint(left, top, (int) Math.ceil((x + 1) * scale) - left + 1, (int) Math.ceil((y + 1) * scale) - top + 1);
 		}
 	}
 
@@ -183,10 +253,10 @@ public class WorldPanel extends JPanel
 		int height = gr.getFontMetrics().getHeight();
 		int xStart = getCellSize() * world.getWidth() + 15;
 		int curY = 15;
-		for(int i : colorMap.keySet())
+		for(int i = 0; i < world.getNumberOfGroups(); i++)
 		{
 			String name = "Group " + (i + 1);
-			gr.setColor(colorMap.get(i));
+			gr.setColor(getGroupColor(i));
 			gr.fillRect(xStart, curY, height, height);
 			gr.setColor(Color.BLACK);
 			gr.drawString(name, xStart + 2*height, curY + height);
@@ -209,20 +279,51 @@ public class WorldPanel extends JPanel
 	}
 	
 	/**
-	 * Get the color to draw the circle for a creature in. If no color has been assigned
-	 * to a creature type yet, a new color will be picked for this creature.
-	 * @param a the creature for which we want to know the color
+	 * Get the color in which the agents of a group are drawn
+	 * @param group the group
 	 * @return the color
 	 */
-	private Color getAgentColor(Agent a) {
-		int i = a.getGroup();
+	private static Color getGroupColor(int group) {
+		return colors[group % colors.length];
+	}
+
+	/**
+	 * Marks the cells changed by the simulation as dirty
+	 */
+	private class ChangeTracker implements WorldListener
+	{
+		@Override
+		public void cellChanged(int index)
+		{
+			markDirty(index);
+		}
+
+		@Override
+		public void agentMoved(int from, int to)
+		{
+			markDirty(from);
+			markDirty(to);
+		}
+	}
+
+	/**
+	 * Creates the palette of the cell image, with white for empty cells followed by the colors of all possible groups
+	 * @return the palette
+	 */
+	private static IndexColorModel createPalette() {
+		int size = Byte.MAX_VALUE + 2;
+		byte[] r = new byte[size];
+		byte[] g = new byte[size];
+		byte[] b = new byte[size];
 
-		if (colorMap.containsKey(i)) {
-			return colorMap.get(i);
+		r[0] = g[0] = b[0] = (byte) 255;
+		for (int i = 1; i < size; i++) {
+			Color color = getGroupColor(i - 1);
+			r[i] = (byte) color.getRed();
+			g[i] = (byte) color.getGreen();
+			b[i] = (byte) color.getBlue();
 		}
 
-		Color color = colors[colorMap.size() % colors.length];
-		colorMap.put(i, color);
-		return color;
+		return new IndexColorModel(8, size, r, g, b);
 	}
 }
@@ -27,6 +27,7 @@ public class WorldWindow extends JFrame {
 	private JButton reset;
 	private JSlider threshold;
 	private JLabel thresholdLabel;
+	private JLabel statusLabel;
 	
 	// If an animation is active it is performed by this Thread
 	private Thread running;
@@ -118,6 +119,10 @@ public class WorldWindow extends JFrame {
 		reset = new JButton("Reset Simulation");
 		reset.addActionListener(reset());
 		control.add(reset);
+
+		// Shows when the simulation has converged
+		statusLabel = new JLabel();
+		control.add(statusLabel);
 		
 		// Adds the control panel to the bottom of the window
 		add(control, BorderLayout.SOUTH);
@@ -174,10 +179,13 @@ public class WorldWindow extends JFrame {
 			@Override
 			public void actionPerformed(ActionEvent e)
 			{
-				// Let the controller update the states of the creatures and cells
+				// Let the controller update the states of the creatures and cells; the WorldPanel
+				// is notified of the cells that changed and repaints only those
 				controller.step();
-				// Let the WorldPanel redraw the state of the world
-				worldPanel.repaint();
+
+				if (controller.isConverged()) {
+					showConverged(0);
+				}
 			}
 		};
 	}
@@ -202,11 +210,22 @@ public class WorldWindow extends JFrame {
 				happyChart.getTs().clear();
 				happyChart.setWorld(controller.getWorld());
 
+				statusLabel.setText("");
+
 				// Let the WorldPanel redraw the state of the world
 				worldPanel.repaint();
 			}
 		};
 	}
+
+	/**
+	 * Reports that the simulation has converged. Must be called on the Event Dispatch Thread
+	 * @param nanos time the animation ran until it converged in nanoseconds, or 0 if it converged by stepping manually
+	 */
+	private void showConverged(long nanos) {
+		String text = "Converged after " + controller.getStepCount() + " steps";
+		statusLabel.setText(nanos == 0 ? text : String.format("%s (%.1f s)", text, nanos / 1e9));
+	}
 	
 	/**
 	 * Inner class which extends Thread for the purpose of animating the simulation
@@ -223,12 +242,25 @@ public class WorldWindow extends JFrame {
 		@Override
 		public void run()
 		{
+			long start = System.nanoTime();
+
 			while (running == this)
 			{
-				// Let the controller do a step
+				// Let the controller do a step, after which the WorldPanel repaints the changed cells
 				controller.step();
-				// Let the WorldPanel redraw the state of the world
-				worldPanel.repaint();
+
+				// Once the world no longer changes, stop the animation as if the Stop button was pressed
+				if (controller.isConverged())
+				{
+					long nanos = System.nanoTime() - start;
+					SwingUtilities.invokeLater(() -> {
+						if (running == this) {
+							animate.doClick();
+							showConverged(nanos);
+						}
+					});
+					return;
+				}
 
 				try
 				{
@@ -244,8 +276,11 @@ public class WorldWindow extends JFrame {
 	private class ThresholdListener  implements ChangeListener {
 		public void stateChanged(ChangeEvent e) {
 			controller.setSatisfactionThreshold((double) threshold.getValue() / 100);
-			for (Agent agent : controller.getWorld().getAgents()) {
-				agent.setSatisfactionThreshold(controller.getSatisfactionThreshold());
+
+			// The animation thread may be stepping, so the world is changed while holding its lock
+			World world = controller.getWorld();
+			synchronized (world) {
+				world.setSatisfactionThreshold(controller.getSatisfactionThreshold());
 			}
 
 			thresholdLabel.setText("Satisfaction threshold (%): " + threshold.getValue());
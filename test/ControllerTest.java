@@ -0,0 +1,60 @@
+import java.io.IOException;
+
+/**
+ * Checks that simulations with the default configuration converge, whether every agent ends up satisfied or the unhappy agents
+ * are stuck. Run with java ControllerTest after compiling it together with the simulation; a failed check throws an
+ * AssertionError.
+ */
+public class ControllerTest {
+    // Far more steps than a default world needs to settle
+    private static final int MAX_STEPS = 2000000;
+
+    public static void main(String[] args) throws IOException {
+        for (Controller.Scheduler scheduler : Controller.Scheduler.values()) {
+            defaultRunConverges(scheduler, "--threshold=0.3");
+            defaultRunConverges(scheduler, "--threshold=0.35");
+            // Most agents cannot find a satisfying vacancy this close by, so the run freezes with unhappy agents
+            defaultRunConverges(scheduler, "--threshold=0.8", "--searchRadius=2");
+        }
+        sweepsConverge();
+        System.out.println("ControllerTest passed");
+    }
+
+    private static void defaultRunConverges(Controller.Scheduler scheduler, String... options) throws IOException {
+        Controller controller = createController(options);
+        controller.setScheduler(scheduler);
+        World world = controller.getWorld();
+        int steps = 0;
+
+        while (!controller.isConverged()) {
+            check(++steps <= MAX_STEPS, scheduler + " run with " + String.join(" ", options) + " did not converge");
+            controller.step();
+        }
+
+        long moves = world.getMoveCount();
+        for (int i = 0; i < 10000; i++) {
+            controller.step();
+        }
+        check(world.getMoveCount() == moves, "a converged world still changes");
+    }
+
+    private static void sweepsConverge() throws IOException {
+        Controller controller = createController("--threshold=0.3");
+        int sweeps = 0;
+
+        while (!controller.isConverged()) {
+            check(++sweeps <= 1000, "sweeps did not converge");
+            controller.sweep();
+        }
+    }
+
+    private static Controller createController(String... options) throws IOException {
+        return new SimulationConfig(options).createController();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
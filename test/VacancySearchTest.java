@@ -0,0 +1,60 @@
+import java.util.Random;
+
+/**
+ * Checks that a VacancySearch only moves agents to cells in which they are satisfied after the move. Run with
+ * java VacancySearchTest after compiling it together with the simulation; a failed check throws an AssertionError.
+ */
+public class VacancySearchTest {
+    public static void main(String[] args) {
+        ownOriginIsNotANeighbour();
+        movedAgentsAreSatisfied();
+        System.out.println("VacancySearchTest passed");
+    }
+
+    /**
+     * In a row of three cells, the vacancy between an agent and an agent of another group looks half same-group as long as the
+     * agent itself is still next to it, but has no same-group neighbour at all once the agent has moved there
+     */
+    private static void ownOriginIsNotANeighbour() {
+        World world = new World(3, 1);
+        world.addAgent(0, 0, 0.5);
+        world.addAgent(2, 1, 0.5);
+
+        check(!world.isSatisfied(0), "the agent is unhappy");
+        check(new VacancySearch().find(world, 0, 0, 0.5) == -1, "the agent counts itself as a neighbour of the vacancy");
+    }
+
+    /**
+     * Every agent that is moved by the search is satisfied at its destination, for both metrics
+     */
+    private static void movedAgentsAreSatisfied() {
+        for (VacancySearch.Metric metric : VacancySearch.Metric.values()) {
+            World world = new World(60, 60);
+            Controller controller = new Controller(world, 1234, 0.3, 2, (int) Math.round(0.76 * world.getSize()));
+            controller.createRandomNeighbourhood();
+
+            Random random = new Random(1234);
+            VacancySearch search = new VacancySearch(metric, 0, random);
+            int moves = 0;
+
+            for (int step = 0; step < 200000 && world.getUnhappyCount() > 0; step++) {
+                int index = world.getUnhappyCell(random.nextInt(world.getUnhappyCount()));
+                int destination = search.find(world, index, world.getGroup(index), world.getThreshold(index));
+
+                if (destination >= 0) {
+                    world.moveAgent(index, destination);
+                    check(world.isSatisfied(destination), "agent moved from " + index + " to " + destination + " is unhappy");
+                    moves++;
+                }
+            }
+
+            check(moves > 0, "no agent moved");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}